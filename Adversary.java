@@ -0,0 +1,139 @@
+// Adversary.java
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ Picks the piece that is worst for the player on a given board.
+ All 7 pieces are scored in parallel on a ForkJoinPool, each on its own
+ copy of the board. A piece's score is how well the player can do with it:
+ with one ply that is the player's best rateBoard() after playing it,
+ with more plies the adversary also gets to pick the pieces after it,
+ so it finds pieces that hurt later rather than straight away.
+ Only the breadth best plays are searched past the first ply.
+
+ Answers are cached by board hash, so asking again about the same board
+ is a table lookup. The one ply scores always finish; deeper plies stop
+ at the deadline, and then the deepest finished answer is used (and not
+ cached, so a later call with more time can still improve on it).
+ An Adversary is meant to be used by one thread at a time.
+*/
+public class Adversary {
+    public static final int DEFAULT_BREADTH = 6;
+
+    private final DefaultBrain evaluator = new DefaultBrain(null);
+    private final int plies;
+    private final int breadth;
+    private final ForkJoinPool pool;
+    private final TranspositionTable cache = new TranspositionTable(1 << 12);
+
+    public Adversary(int plies) {
+        this(plies, DEFAULT_BREADTH, ForkJoinPool.commonPool());
+    }
+
+    public Adversary(int plies, int breadth, ForkJoinPool pool) {
+        if (plies < 1 || breadth < 1) {
+            throw new IllegalArgumentException("Need at least one ply and a breadth of one, got: " + plies + ", " + breadth);
+        }
+        this.plies = plies;
+        this.breadth = breadth;
+        this.pool = pool;
+    }
+
+    public TranspositionTable getCache() {
+        return cache;
+    }
+
+    /**
+     Returns the worst piece for the player on the given committed board,
+     or null if none of the pieces can be played at all. The board is only
+     read -- it must not change until this returns.
+    */
+    public Piece worstPiece(Board board, int limitHeight, long deadline) {
+        Piece[] pieces = Piece.getPieces();
+        long key = TranspositionTable.key(board.getZobrist(), board.getWidth(), limitHeight);
+        int slot = cache.find(key, plies);
+        if (slot >= 0) {
+            int index = cache.getMove(slot);
+            return index == TranspositionTable.NO_MOVE ? null : pieces[index];
+        }
+
+        int worst = TranspositionTable.NO_MOVE;
+        int reached = 0;
+        for (int depth = 1; depth <= plies; depth++) {
+            if (depth > 1 && System.nanoTime() - deadline > 0) break;
+            int found = worstIndex(board, limitHeight, depth, depth > 1, deadline);
+            if (found == TIMED_OUT) break;
+            worst = found;
+            reached = depth;
+        }
+        if (reached == plies) cache.store(key, plies, 0, worst);
+        return worst == TranspositionTable.NO_MOVE ? null : pieces[worst];
+    }
+
+    private static final int TIMED_OUT = -2;
+
+    // scores every piece in parallel, -1 if none fit and TIMED_OUT if out of time
+    private int worstIndex(Board board, int limitHeight, int depth, boolean timed, long deadline) {
+        Piece[] pieces = Piece.getPieces();
+        List<ForkJoinTask<Double>> tasks = new ArrayList<ForkJoinTask<Double>>();
+        for (Piece p : pieces) {
+            tasks.add(pool.submit(() -> score(board.copy(), p, limitHeight, depth, timed, deadline)));
+        }
+
+        int worst = TranspositionTable.NO_MOVE;
+        double worstScore = Double.NEGATIVE_INFINITY;
+        boolean timedOut = false;
+        for (int i = 0; i < pieces.length; i++) {
+            double score = tasks.get(i).join();
+            if (Double.isNaN(score)) timedOut = true;
+            else if (score != NO_PLAY && score > worstScore) {
+                worstScore = score;
+                worst = i;
+            }
+        }
+        return timedOut ? TIMED_OUT : worst;
+    }
+
+    private static final double NO_PLAY = Double.POSITIVE_INFINITY;
+
+    /*
+     How well the player does with piece, when the adversary picks
+     the pieces for the remaining plies. NO_PLAY if it does not fit,
+     NaN if the deadline passed.
+    */
+    private double score(Board board, Piece piece, int limitHeight, int depth, boolean timed, long deadline) {
+        if (timed && System.nanoTime() - deadline > 0) return Double.NaN;
+
+        // the player's plays, best first
+        List<Placements.Play> plays = new ArrayList<Placements.Play>();
+        Placements.forEach(board, piece, limitHeight, (i, current, x, y, after) ->
+            plays.add(new Placements.Play(i, current, x, y, evaluator.rateBoard(after))));
+
+        if (plays.isEmpty()) return NO_PLAY;
+        plays.sort((a, b) -> Double.compare(a.score, b.score));
+        if (depth == 1) return plays.get(0).score;
+
+        // the player takes the best of their plays, we then hand them the worst piece
+        double best = NO_PLAY;
+        Piece[] pieces = Piece.getPieces();
+        for (int i = 0; i < Math.min(breadth, plays.size()); i++) {
+            int mark = board.mark();
+            plays.get(i).playOn(board);
+            double worst = Double.NEGATIVE_INFINITY;
+            for (Piece next : pieces) {
+                double s = score(board, next, limitHeight, depth - 1, timed, deadline);
+                if (Double.isNaN(s)) {
+                    board.rollbackTo(mark);
+                    return s;
+                }
+                worst = Math.max(worst, s == NO_PLAY ? ExpectimaxBrain.LOSS : s);
+            }
+            board.rollbackTo(mark);
+            best = Math.min(best, worst);
+        }
+        return best;
+    }
+}
@@ -0,0 +1,24 @@
+// AnytimeBrain.java -- brains that can be given a deadline
+
+/**
+ A Brain whose search can be cut short. It deepens its search step
+ by step and, when the deadline comes, answers with the best move of
+ the deepest search it finished. The shallowest search always runs to
+ the end, so there is an answer whenever a play is possible at all.
+*/
+public interface AnytimeBrain extends Brain {
+    // Report is used as a struct to describe how a search went
+    public static class Report {
+        public int depth;        // deepest search that finished
+        public long nodes;       // boards rated, over all the searches
+        public boolean timedOut; // true if the deadline cut a search short
+    }
+
+    /**
+     Like bestMove(), but stops searching once System.nanoTime()
+     passes deadline. If report is non-null it is filled in with
+     the depth reached and the nodes searched.
+    */
+    public Brain.Move bestMove(Board board, Piece piece, int limitHeight, Brain.Move move,
+                               long deadline, AnytimeBrain.Report report);
+}
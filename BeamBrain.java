@@ -0,0 +1,104 @@
+// BeamBrain.java
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ A Brain that plans several pieces ahead using the preview.
+ It searches one ply per piece -- the current piece, then the preview
+ pieces in order -- keeping only the beamWidth best boards at each ply.
+ The answer is the first move on the way to the best board of the
+ deepest ply reached.
+
+ All the searching happens on the board it is given: a beam entry is
+ just its list of moves, which gets replayed after a Board.mark() and
+ unwound with rollbackTo(), so no board is ever copied.
+ Boards are scored with the rateBoard() of a DefaultBrain.
+*/
+public class BeamBrain implements Brain {
+    private final DefaultBrain evaluator;
+    private final int plies;
+    private final int beamWidth;
+
+    public BeamBrain(int plies, int beamWidth) {
+        this(new DefaultBrain(null), plies, beamWidth);
+    }
+
+    public BeamBrain(DefaultBrain evaluator, int plies, int beamWidth) {
+        if (plies < 1 || beamWidth < 1) {
+            throw new IllegalArgumentException("Need at least one ply and a beam of one, got: " + plies + ", " + beamWidth);
+        }
+        this.evaluator = evaluator;
+        this.plies = plies;
+        this.beamWidth = beamWidth;
+    }
+
+    /**
+     Without a preview there is only one ply to search.
+    */
+    public Brain.Move bestMove(Board board, Piece piece, int limitHeight, Brain.Move move) {
+        return bestMove(board, piece, new Piece[0], limitHeight, move);
+    }
+
+    public Brain.Move bestMove(Board board, Piece piece, Piece[] preview, int limitHeight, Brain.Move move) {
+        board.commit();
+        int depth = Math.min(plies, preview.length + 1);
+
+        List<Node> beam = new ArrayList<Node>();
+        beam.add(null);    // the root -- no moves yet
+        List<Node> best = null;
+        for (int ply = 0; ply < depth; ply++) {
+            Piece next = (ply == 0) ? piece : preview[ply - 1];
+            List<Node> children = new ArrayList<Node>();
+            for (Node node : beam) {
+                int mark = board.mark();
+                replay(board, node);
+                expand(board, node, next, limitHeight, children);
+                board.rollbackTo(mark);
+            }
+            if (children.isEmpty()) break;    // nothing fits, go with the last ply
+
+            // stable, so equal scores keep the order they were found in
+            children.sort((a, b) -> Double.compare(a.play.score, b.play.score));
+            if (children.size() > beamWidth) children = new ArrayList<Node>(children.subList(0, beamWidth));
+            beam = children;
+            best = children;
+        }
+
+        if (best == null) return(null);    // could not find a play at all!
+        Node leaf = best.get(0);
+        Node first = leaf;
+        while (first.parent != null) first = first.parent;
+
+        if (move == null) move = new Brain.Move();
+        move.piece = first.play.piece;
+        move.x = first.play.x;
+        move.y = first.play.y;
+        move.score = leaf.play.score;
+        return(move);
+    }
+
+    // A play in the search tree, and the one before it
+    private static class Node {
+        final Node parent;
+        final Placements.Play play;
+
+        Node(Node parent, Placements.Play play) {
+            this.parent = parent;
+            this.play = play;
+        }
+    }
+
+    // plays the moves leading to node, from the root down
+    private void replay(Board board, Node node) {
+        if (node == null) return;
+        replay(board, node.parent);
+        node.play.playOn(board);
+    }
+
+    // adds a child for every legal play of piece, the same plays DefaultBrain tries
+    private void expand(Board board, Node parent, Piece piece, int limitHeight, List<Node> children) {
+        Placements.forEach(board, piece, limitHeight, (i, current, x, y, after) ->
+            children.add(new Node(parent, new Placements.Play(i, current, x, y, evaluator.rateBoard(after)))));
+    }
+}
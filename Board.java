@@ -7,8 +7,12 @@ import java.util.Arrays;
 /**
  CS108 Tetris Board.
  Represents a Tetris board -- essentially a 2-d grid
- of booleans. Supports tetris pieces and row clearing.
- Has an "undo" feature that allows clients to add and remove pieces efficiently.
+ of booleans, stored as one bitmask per row so that
+ collision and full-row checks are shifts and masks.
+ Boards are at most MAX_WIDTH blocks wide.
+ Supports tetris pieces and row clearing.
+ Has an "undo" feature that allows clients to add and remove pieces efficiently,
+ and nested mark()/rollbackTo() checkpoints for multi-ply searches.
  Does not do any drawing or have any idea of pixels. Instead,
  just represents the abstract 2-d board.
 */
@@ -17,17 +21,82 @@ public class Board	{
 	private int width;
 	private int height;
 	private int maxH;
-	private int b_maxH;
-	public int[] rowWidth;
-	private int[] b_rowWidth;
 	public int[] colHeight;
-	private int[] b_colHeight;
-	private boolean[][] grid;
-	private boolean[][] b_grid;
-	private boolean DEBUG = true;
+	// one bitmask per row, bit x is set when block (x, y) is filled.
+	// Used as a ring -- row y lives in rows[(base + y) % height], so rows
+	// can be dropped or pushed at the bottom by moving base.
+	private long[] rows;
+	private int base;
+	private long fullRow;
+	// position hash, see getZobrist() -- HASH_STEP^y for each row y, and the inverses
+	private long hash;
+	private long[] stepPow;
+	private long[] stepInv;
+	private int[] scratchHeights;
+	// features kept up to date for evaluators, see getHoles() and friends
+	private int[] colFilled;	// blocks in each column
+	private int filledCount;
+	private int sumHeight;
+	private int bumpiness;
+	private int wellSum;
+	// the last place() and the clearRows() after it, see getLastPlaceY()
+	private Piece lastPiece;
+	private int lastY;
+	private int lastCleared, lastEroded;
+	// undo journal -- one entry per changed value since the last commit,
+	// packed as (index << J_BITS | kind) with the old value alongside.
+	// Row entries hold the physical slot, not the logical y.
+	private int[] jSlot;
+	private long[] jOld;
+	private int jSize;
+	private int undoBase;	// journal position undo() rolls back to
+	private int openMarks;	// journal is kept past commit() while marks are open
+	private int[] markAt;	// journal position of each open mark, outermost first
+	// consistency checking, see setCheckMode()
+	private CheckMode checkMode = CheckMode.SAMPLED;
+	private int checkPeriod = DEFAULT_CHECK_PERIOD;
+	private int opsUntilCheck = DEFAULT_CHECK_PERIOD;
+	private volatile RuntimeException shadowFailure;
+	private int[] checkWidths;
+	private int[] checkHeights;
+	private int[] checkFilled;
+	private long[] checkRows;
 	boolean committed;
 
 
+	/**
+	 Widest supported board -- every row is packed into a single long.
+	*/
+	public static final int MAX_WIDTH = Long.SIZE;
+
+	// journal entry kinds, kept in the low J_BITS of a slot
+	private static final int J_ROW = 0;
+	private static final int J_COL = 1;
+	private static final int J_MAXH = 2;
+	private static final int J_BASE = 3;
+	private static final int J_FILL = 4;
+	private static final int J_FILLS = 5;
+	private static final int J_BITS = 3;
+	private static final int J_KIND = (1 << J_BITS) - 1;
+	private static final int JOURNAL_START = 64;
+
+	/**
+	 How sanityCheck() verifies the board after each operation.
+	 OFF never checks. SAMPLED runs the full check on the calling
+	 thread every N-th operation. SHADOW hands every N-th state to
+	 the background BoardVerifier instead; a failure it finds is thrown
+	 by the next operation on this board.
+	*/
+	public enum CheckMode { OFF, SAMPLED, SHADOW }
+
+	public static final int DEFAULT_CHECK_PERIOD = 256;
+
+	// recounts the columns for fullCheck()
+	private static final BoardKernel KERNEL = BoardKernel.getDefault();
+
+	// odd, so it has a multiplicative inverse mod 2^64
+	private static final long HASH_STEP = 0x9E3779B97F4A7C15L;
+
 	// Here a few trivial methods are provided:
 	
 	/**
@@ -35,20 +104,114 @@ public class Board	{
 	 measured in blocks.
 	*/
 	public Board(int width, int height) {
+		if (width < 1 || width > MAX_WIDTH) {
+			throw new IllegalArgumentException("Board width must be in 1.." + MAX_WIDTH + ", got: " + width);
+		}
 		this.width = width;
 		this.height = height;
-		rowWidth = new int[height];
-		b_rowWidth = new int[height];
+		fullRow = (width == MAX_WIDTH) ? -1L : (1L << width) - 1;
 		colHeight = new int[width];
-		b_colHeight = new int[width];
+		scratchHeights = new int[width];
+		colFilled = new int[width];
 		maxH = 0;
-		b_maxH = 0;
-		grid = new boolean[width][height];
-		b_grid = new boolean[width][height];
+		rows = new long[height];
+		base = 0;
+		hash = 0;
+		stepPow = new long[height + 1];
+		stepInv = new long[height + 1];
+		long inv = inverse(HASH_STEP);
+		stepPow[0] = stepInv[0] = 1;
+		for (int j = 1; j <= height; j++) {
+			stepPow[j] = stepPow[j - 1] * HASH_STEP;
+			stepInv[j] = stepInv[j - 1] * inv;
+		}
+		jSlot = new int[JOURNAL_START];
+		jOld = new long[JOURNAL_START];
+		jSize = 0;
+		undoBase = 0;
+		openMarks = 0;
+		markAt = new int[4];
 		committed = true;
+		for (int i = 0; i < width; i++) {
+			wellSum += getWellDepth(i);
+		}
+	}
+
+	// Copy of the current blocks and features, with an empty journal.
+	private Board(Board other) {
+		this(other.width, other.height);
+		for (int j = 0; j < height; j++) {
+			rows[j] = other.row(j);
+		}
+		hash = other.hash;
+		System.arraycopy(other.colHeight, 0, colHeight, 0, width);
+		System.arraycopy(other.colFilled, 0, colFilled, 0, width);
+		filledCount = other.filledCount;
+		sumHeight = other.sumHeight;
+		bumpiness = other.bumpiness;
+		wellSum = other.wellSum;
+		maxH = other.maxH;
+		checkMode = other.checkMode;
+		checkPeriod = other.checkPeriod;
+		opsUntilCheck = other.checkPeriod;
+	}
+
+	/**
+	 Returns a new board with the same blocks as this one, in the
+	 committed state and with the same check mode. Changes that
+	 have not been committed yet are copied as if they were.
+	 Useful to give each thread of a search its own board.
+	*/
+	public Board copy() {
+		return new Board(this);
+	}
+
+	/**
+	 Returns a new committed board whose row y holds rows[y]
+	 (as getRowBits() gives it) for y below count, and is empty above.
+	 The heights and other features are worked out from the rows,
+	 so they are the only thing a saved board needs to keep.
+	*/
+	public static Board fromRows(int width, int height, long[] rows, int count) {
+		Board board = new Board(width, height);
+		if (count > height) {
+			throw new IllegalArgumentException("Got " + count + " rows for a board " + height + " high");
+		}
+		for (int y = 0; y < count; y++) {
+			if ((rows[y] & ~board.fullRow) != 0) {
+				throw new IllegalArgumentException("Row " + y + " is wider than " + width);
+			}
+			board.setRow(y, rows[y]);
+			board.applyFills(rows[y], 1);
+		}
+		board.recomputeHeights(count);
+		board.commit();
+		return board;
 	}
 	
-	public void setDebugMode(boolean mode){ DEBUG = mode; }
+	/**
+	 Debug mode checks the board after every operation,
+	 otherwise checking is off.
+	*/
+	public void setDebugMode(boolean mode){
+		setCheckMode(mode ? CheckMode.SAMPLED : CheckMode.OFF, 1);
+	}
+
+	/**
+	 Sets how the board checks itself, and every how many
+	 place/clearRows/undo operations it does so.
+	*/
+	public void setCheckMode(CheckMode mode, int period) {
+		if (period < 1) throw new IllegalArgumentException("Check period must be positive, got: " + period);
+		checkMode = mode;
+		checkPeriod = period;
+		opsUntilCheck = period;
+	}
+
+	public CheckMode getCheckMode() {
+		return checkMode;
+	}
+
 	/**
 	 Returns the width of the board in blocks.
 	*/
@@ -76,32 +239,89 @@ public class Board	{
 	
 	/**
 	 Checks the board for internal consistency -- used
-	 for debugging.
+	 for debugging. Called after each operation, what it
+	 actually does depends on the check mode.
 	*/
 	public void sanityCheck() throws RuntimeException {
-		if (!DEBUG) return;
+		if (checkMode == CheckMode.OFF) return;
+		RuntimeException failure = shadowFailure;
+		if (failure != null) {
+			shadowFailure = null;
+			throw failure;
+		}
+		if (--opsUntilCheck > 0) return;
+		opsUntilCheck = checkPeriod;
 
+		if (checkMode == CheckMode.SHADOW) {
+			Board snapshot = new Board(this);
+			snapshot.checkMode = CheckMode.OFF;
+			BoardVerifier.submit(this, snapshot);
+		}
+		else fullCheck();
+	}
+
+	/*
+	 Rescans the blocks and compares them against the stored
+	 column heights, row widths and max height. The columns are
+	 recounted by the BoardKernel, all of them at once.
+	*/
+	void fullCheck() throws RuntimeException {
+		if (checkWidths == null) {
+			checkWidths = new int[height];
+			checkHeights = new int[width];
+			checkFilled = new int[width];
+			checkRows = new long[height];
+		}
 		int gridMaxH = 0;
-		int[] gridWidths = new int[height];
-		for(int i = 0; i < width; i++){
-			int currColH = 0;
-			for (int j = 0; j < height; j++) {
-				if(grid[i][j]){
-					currColH = Math.max(currColH, j + 1);
-					gridWidths[j]++;
-				}
-			}
-			checkColSanity(currColH, i);
-			gridMaxH = Math.max(currColH, gridMaxH);
+		int[] gridWidths = checkWidths;
+		for (int j = 0; j < height; j++) {
+			long row = row(j);
+			checkRows[j] = row & fullRow;
+			gridWidths[j] = Long.bitCount(row & fullRow);
+			if (row != 0) gridMaxH = j + 1;
+		}
+		KERNEL.scan(checkRows, height, width, checkHeights, checkFilled);
+		for (int i = 0; i < width; i++) {
+			checkColSanity(checkHeights[i], i);
 		}
 		checkRowSanity(gridWidths, gridMaxH);
+		if(computeHash() != hash){
+			throw new RuntimeException("Incorrectly stored hash");
+		}
+		checkFeatureSanity(checkFilled);
+	}
 
+	// compares the incrementally kept features with a recount
+	private void checkFeatureSanity(int[] gridFilled) throws RuntimeException {
+		int blocks = 0, heights = 0, bump = 0, wells = 0;
+		for (int i = 0; i < width; i++) {
+			if(gridFilled[i] != colFilled[i]){
+				throw new RuntimeException("Incorrectly stored block count on col: " + i);
+			}
+			blocks += gridFilled[i];
+			heights += colHeight[i];
+			if(i > 0) bump += Math.abs(colHeight[i - 1] - colHeight[i]);
+			wells += getWellDepth(i);
+		}
+		if(blocks != filledCount || heights != sumHeight || bump != bumpiness || wells != wellSum){
+			throw new RuntimeException("Incorrectly stored board features");
+		}
+	}
+
+	// Called by the BoardVerifier thread when a snapshot of this board fails.
+	void shadowFailed(RuntimeException failure) {
+		shadowFailure = failure;
 	}
 
 	protected void checkRowSanity(int[] gridWidths, int gridMaxH) throws RuntimeException {
-		if(!Arrays.equals(gridWidths, rowWidth)){
+		if(gridWidths.length != height){
 			throw new RuntimeException("Incorrectly stored width");
 		}
+		for (int j = 0; j < height; j++) {
+			if(gridWidths[j] != getRowWidth(j)){
+				throw new RuntimeException("Incorrectly stored width");
+			}
+		}
 		if(gridMaxH != maxH){
 			throw new RuntimeException("Incorrectly stored max height!\nexp: "
 					+ gridMaxH + ", got: " + maxH);
@@ -149,7 +369,112 @@ public class Board	{
 	 the given row.
 	*/
 	public int getRowWidth(int y) {
-		 return rowWidth[y];
+		 return Long.bitCount(row(y));
+	}
+
+
+
+	/*
+	 Board features for evaluators. They are kept up to date by
+	 every operation (and undo), so reading them is O(1).
+	*/
+
+	/**
+	 Returns the sum of all the column heights.
+	*/
+	public int getAggregateHeight() {
+		return sumHeight;
+	}
+
+	/**
+	 Returns the number of filled blocks on the board.
+	*/
+	public int getBlockCount() {
+		return filledCount;
+	}
+
+	/**
+	 Returns the number of holes -- empty blocks that
+	 have a filled block somewhere above them in their column.
+	*/
+	public int getHoles() {
+		return sumHeight - filledCount;
+	}
+
+	/**
+	 Returns the number of holes in the given column.
+	*/
+	public int getColumnHoles(int x) {
+		return colHeight[x] - colFilled[x];
+	}
+
+	/**
+	 Returns the sum of the height differences
+	 between neighbouring columns.
+	*/
+	public int getBumpiness() {
+		return bumpiness;
+	}
+
+	/**
+	 Returns how far the given column sits below the lower of
+	 its two neighbours, or 0 if it is not below both.
+	 The side walls count as full height.
+	*/
+	public int getWellDepth(int x) {
+		int left = x > 0 ? colHeight[x - 1] : height;
+		int right = x < width - 1 ? colHeight[x + 1] : height;
+		return Math.max(0, Math.min(left, right) - colHeight[x]);
+	}
+
+	/**
+	 Returns the sum of getWellDepth() over all the columns.
+	*/
+	public int getWellSum() {
+		return wellSum;
+	}
+
+	/**
+	 Returns the bits of row y -- bit x is set if (x, y) is filled.
+	*/
+	public long getRowBits(int y) {
+		return row(y);
+	}
+
+	/*
+	 The last successful place(), and what the clearRows() right after
+	 it removed. These are not journalled: undo() leaves them alone, so
+	 they only describe the board until the next change.
+	*/
+
+	/**
+	 Returns the piece of the last successful place(), or null.
+	*/
+	public Piece getLastPlacePiece() {
+		return lastPiece;
+	}
+
+	/**
+	 Returns the y of the last successful place().
+	*/
+	public int getLastPlaceY() {
+		return lastY;
+	}
+
+	/**
+	 Returns the rows the last clearRows() removed, 0 if the last
+	 place() has not been followed by one.
+	*/
+	public int getLastRowsCleared() {
+		return lastCleared;
+	}
+
+	/**
+	 Returns how many blocks of the last placed piece the
+	 clearRows() after it removed.
+	*/
+	public int getLastErodedBlocks() {
+		return lastEroded;
 	}
 	
 	
@@ -159,7 +484,7 @@ public class Board	{
 	 always return true.
 	 */
 	public boolean getGrid(int x, int y) {
-		return notValid(x, y) || grid[x][y];
+		return notValid(x, y) || (row(y) >>> x & 1L) != 0;
 	}
 
 	private boolean notValid(int x, int y) {
@@ -182,37 +507,209 @@ public class Board	{
 	 of bounds of the board, PLACE_OUT_BOUNDS is returned.
 	 Or the placement may collide with existing blocks in the grid
 	 in which case PLACE_BAD is returned.
-	 In both error cases, the board may be left in an invalid
-	 state. The client can use undo(), to recover the valid, pre-place state.
+	 In both error cases the board is left unchanged, but it is still
+	 uncommitted -- the client uses undo() to get back to the committed state.
 	*/
 	public int place(Piece piece, int x, int y) {
 		// flag !committed problem
 		if (!committed) throw new RuntimeException("place commit problem");
 		committed = false;
-		doBackup();
 
+		int result = probe(piece, x, y);
+		if(result >= PLACE_OUT_BOUNDS){ return result; }
+
+		long[] masks = piece.getRowMasks();
+		for (int i = 0; i < masks.length; i++) {
+			setRow(y + i, row(y + i) | masks[i] << x);
+		}
+		for(TPoint pt : piece.getBody()){
+			int currX = x + pt.x;
+			setColFilled(currX, colFilled[currX] + 1);
+			if(y + pt.y + 1 > colHeight[currX]) setColHeight(currX, y + pt.y + 1);
+		}
+		if(y + piece.getHeight() > maxH) setMaxH(y + piece.getHeight());
+		lastPiece = piece;
+		lastY = y;
+		lastCleared = 0;
+		lastEroded = 0;
+		sanityCheck();
+		return result;
+	}
+
+
+	/**
+	 Returns what place() would return for the given piece and
+	 position, without changing the board. Works in any state,
+	 committed or not, and costs a few mask tests.
+	*/
+	public int probe(Piece piece, int x, int y) {
 		if(!inBounds(piece, x, y)){ return PLACE_OUT_BOUNDS; }
+		long[] masks = piece.getRowMasks();
 		int result = PLACE_OK;
+		for (int i = 0; i < masks.length; i++) {
+			long mask = masks[i] << x;
+			long row = row(y + i);
+			if((row & mask) != 0){ return PLACE_BAD; }
+			if((row | mask) == fullRow){ result = PLACE_ROW_FILLED; }
+		}
+		return result;
+	}
+
+
+	/**
+	 Returns the rows the given placement would fill, as a bitmask
+	 relative to y -- bit i set means row y + i would be full.
+	 Returns 0 if nothing fills or the placement is not possible.
+	 Does not change the board.
+	*/
+	public int filledRows(Piece piece, int x, int y) {
+		if(probe(piece, x, y) != PLACE_ROW_FILLED){ return 0; }
+		long[] masks = piece.getRowMasks();
+		int filled = 0;
+		for (int i = 0; i < masks.length; i++) {
+			if((row(y + i) | masks[i] << x) == fullRow){ filled |= 1 << i; }
+		}
+		return filled;
+	}
+
 
+	/**
+	 Fills heights with the column heights the board would have
+	 after the given placement, before any rows are cleared.
+	 heights must hold at least getWidth() values.
+	 Returns false, leaving heights untouched, if the placement
+	 is not possible. Does not change the board.
+	*/
+	public boolean resultingHeights(Piece piece, int x, int y, int[] heights) {
+		if(probe(piece, x, y) >= PLACE_OUT_BOUNDS){ return false; }
+		System.arraycopy(colHeight, 0, heights, 0, width);
 		for(TPoint pt : piece.getBody()){
-			int currX = x + pt.x, currY = y + pt.y;
-			if(grid[currX][currY]){	return PLACE_BAD; }
+			heights[x + pt.x] = Math.max(y + pt.y + 1, heights[x + pt.x]);
+		}
+		return true;
+	}
 
-			grid[currX][currY] = true;
-			if(++rowWidth[currY] == width){ result = PLACE_ROW_FILLED; }
-			colHeight[currX] = Math.max(currY + 1, colHeight[currX]);
-			maxH = Math.max(colHeight[currX], maxH);
+	/*
+	 Journaled setters -- every change made between commits goes
+	 through one of these, so undo() only has to replay the journal
+	 backwards instead of restoring a copy of the whole board.
+	*/
+	private void setRow(int y, long bits) {
+		int slot = slot(y);
+		journal(J_ROW, slot, rows[slot]);
+		hash += (rowKey(bits) - rowKey(rows[slot])) * stepPow[y];
+		rows[slot] = bits;
+	}
+
+	// every row's y goes up by shift (down for a negative shift);
+	// the rows that wrap round the ring must be empty
+	private void setBase(int b, int shift) {
+		journal(J_BASE, 0, (long) shift << 32 | base);
+		base = b;
+		hash *= shift >= 0 ? stepPow[shift] : stepInv[-shift];
+	}
+
+	// physical index of row y in the ring
+	private int slot(int y) {
+		int p = base + y;
+		return p < height ? p : p - height;
+	}
+
+	private long row(int y) {
+		return rows[slot(y)];
+	}
+
+	private void setColHeight(int x, int h) {
+		journal(J_COL, x, colHeight[x]);
+		applyColHeight(x, h);
+	}
+
+	private void setColFilled(int x, int n) {
+		journal(J_FILL, x, colFilled[x]);
+		filledCount += n - colFilled[x];
+		colFilled[x] = n;
+	}
+
+	// every column in the mask gains delta blocks -- one entry for a whole clear
+	private void addFills(long columns, int delta) {
+		journal(J_FILLS, delta < 0 ? -delta << 1 | 1 : delta << 1, columns);
+		applyFills(columns, delta);
+	}
+
+	private void applyFills(long columns, int delta) {
+		for (long c = columns; c != 0; c &= c - 1) {
+			colFilled[Long.numberOfTrailingZeros(c)] += delta;
 		}
-		sanityCheck();
-		return result;
+		filledCount += delta * Long.bitCount(columns);
+	}
+
+	// a height change only moves the bumpiness and wells next to it
+	private void applyColHeight(int x, int h) {
+		sumHeight += h - colHeight[x];
+		bumpiness -= bumpAround(x);
+		wellSum -= wellsAround(x);
+		colHeight[x] = h;
+		bumpiness += bumpAround(x);
+		wellSum += wellsAround(x);
+	}
+
+	private int bumpAround(int x) {
+		int bump = 0;
+		if(x > 0) bump += Math.abs(colHeight[x - 1] - colHeight[x]);
+		if(x < width - 1) bump += Math.abs(colHeight[x] - colHeight[x + 1]);
+		return bump;
 	}
 
-	private void doBackup() {
-		b_maxH = maxH;
-		System.arraycopy(rowWidth, 0, b_rowWidth, 0, rowWidth.length);
-		System.arraycopy(colHeight, 0, b_colHeight, 0, colHeight.length);
-		for (int i = 0; i < grid.length; i++) {
-			System.arraycopy(grid[i], 0, b_grid[i], 0, grid[i].length);
+	private int wellsAround(int x) {
+		int wells = getWellDepth(x);
+		if(x > 0) wells += getWellDepth(x - 1);
+		if(x < width - 1) wells += getWellDepth(x + 1);
+		return wells;
+	}
+
+	private void setMaxH(int h) {
+		journal(J_MAXH, 0, maxH);
+		maxH = h;
+	}
+
+	private void journal(int kind, int index, long old) {
+		if(jSize == jSlot.length){
+			jSlot = Arrays.copyOf(jSlot, jSize * 2);
+			jOld = Arrays.copyOf(jOld, jSize * 2);
+		}
+		jSlot[jSize] = index << J_BITS | kind;
+		jOld[jSize] = old;
+		jSize++;
+	}
+
+	private void rollback(int to) {
+		while (jSize > to) {
+			jSize--;
+			int index = jSlot[jSize] >>> J_BITS;
+			long old = jOld[jSize];
+			switch (jSlot[jSize] & J_KIND) {
+				case J_ROW:
+					int y = index - base;
+					if(y < 0) y += height;
+					hash += (rowKey(old) - rowKey(rows[index])) * stepPow[y];
+					rows[index] = old;
+					break;
+				case J_COL: applyColHeight(index, (int) old); break;
+				case J_FILL:
+					filledCount += (int) old - colFilled[index];
+					colFilled[index] = (int) old;
+					break;
+				case J_FILLS:
+					int delta = index >>> 1;
+					applyFills(old, (index & 1) != 0 ? delta : -delta);
+					break;
+				case J_MAXH: maxH = (int) old; break;
+				case J_BASE:
+					int shift = (int) (old >> 32);
+					base = (int) old;
+					hash *= shift >= 0 ? stepInv[shift] : stepPow[-shift];
+					break;
+			}
 		}
 	}
 
@@ -226,66 +723,128 @@ public class Board	{
 	 Deletes rows that are filled all the way across, moving
 	 things above down. Returns the number of rows cleared.
 	*/
+	/*
+	 Implementation: either the rows above the lowest cleared row
+	 move down, or the rows below the highest cleared row move up
+	 and the ring base advances past the freed slots -- whichever
+	 moves fewer rows. Clearing the bottom rows of a tall stack
+	 only moves the base.
+	*/
 	public int clearRows() {
-		if(committed) doBackup();
 		committed = false;
-		int rowsCleared = 0;
-		int to = 0;
+		int lowest = -1, highest = -1, rowsCleared = 0, eroded = 0;
+		long[] masks = lastPiece != null ? lastPiece.getRowMasks() : null;
 		for (int j = 0; j < maxH; j++) {
-			rewrite(j, to);
-			if(rowWidth[j] != width) to++;
-			else rowsCleared++;
+			if(row(j) != fullRow) continue;
+			if(lowest < 0) lowest = j;
+			highest = j;
+			rowsCleared++;
+			if(masks != null && j >= lastY && j < lastY + masks.length){
+				eroded += Long.bitCount(masks[j - lastY]);
+			}
+		}
+		lastCleared = rowsCleared;
+		lastEroded = eroded;
+
+		if(rowsCleared > 0){
+			int above = maxH - lowest - rowsCleared;
+			int below = highest + 1 - rowsCleared;
+			if(above <= below) shiftDown(lowest);
+			else shiftUp(highest, rowsCleared);
+			recomputeHeights(maxH - rowsCleared);
+			addFills(fullRow, -rowsCleared);
 		}
-
-
-		maxH -= rowsCleared;
-		actualClear(rowsCleared);
-		decreaseHeight(rowsCleared);
 		sanityCheck();
 		return rowsCleared;
 	}
 
-	private void actualClear(int rowsCleared) {
-		for (int j = 0; j < rowsCleared; j++) {
-			for (int i = 0; i < width; i++) {
-				grid[i][maxH + j] = false;
-			}
-			rowWidth[maxH + j] = 0;
+	// moves the rows kept above from down over the cleared ones
+	private void shiftDown(int from) {
+		int to = from;
+		for (int j = from; j < maxH; j++) {
+			long row = row(j);
+			if(row == fullRow) continue;
+			if(row(to) != row) setRow(to, row);
+			to++;
 		}
-	}
-	private void decreaseHeight(int rowsCleared) {
-		boolean updateFlag = false;
-		for (int i = 0; i < width; i++) {
-			colHeight[i] -= rowsCleared;
-			if(goDown(i)) updateFlag = true;
+		for (int j = to; j < maxH; j++) {
+			if(row(j) != 0) setRow(j, 0L);
 		}
-		if(updateFlag) searchForMaxH();
 	}
 
-	private void searchForMaxH() {
-		int actualMax = -1;
-		for(int h : colHeight){
-			actualMax = Math.max(h, actualMax);
+	// moves the rows kept below from up over the cleared ones, then
+	// rotates the emptied bottom slots round to the top of the ring
+	private void shiftUp(int from, int rowsCleared) {
+		int to = from;
+		for (int j = from; j >= 0; j--) {
+			long row = row(j);
+			if(row == fullRow) continue;
+			if(row(to) != row) setRow(to, row);
+			to--;
+		}
+		for (int j = 0; j < rowsCleared; j++) {
+			if(row(j) != 0) setRow(j, 0L);
 		}
-		maxH = actualMax;
+		setBase(slot(rowsCleared), -rowsCleared);
 	}
 
-	private boolean goDown(int col){
-		boolean flag = false;
-		int h = colHeight[col];
-		while(--h >= 0 && !grid[col][h]){
-			--colHeight[col];
-			flag = true;
+
+	/**
+	 Pushes lines of garbage in at the bottom of the board, moving
+	 everything up. Each line is filled except for the holeX column.
+	 Follows the same commit/undo protocol as place(): returns PLACE_OK,
+	 or PLACE_OUT_BOUNDS without changing anything if blocks would be
+	 pushed off the top.
+	*/
+	public int addGarbage(int lines, int holeX) {
+		if (!committed) throw new RuntimeException("place commit problem");
+		committed = false;
+		if(lines < 0 || maxH + lines > height || holeX < 0 || holeX >= width){
+			return PLACE_OUT_BOUNDS;
+		}
+		if(lines == 0) return PLACE_OK;
+
+		long garbage = fullRow & ~(1L << holeX);
+		for (int n = 0; n < lines; n++) {
+			// the empty top slot becomes the new bottom row
+			setBase(slot(height - 1), 1);
+			setRow(0, garbage);
 		}
-		return flag;
+		for (int i = 0; i < width; i++) {
+			if(colHeight[i] > 0) setColHeight(i, colHeight[i] + lines);
+			else if(i != holeX) setColHeight(i, lines);
+		}
+		addFills(garbage, lines);
+		if(garbage != 0 || maxH > 0) setMaxH(maxH + lines);
+		sanityCheck();
+		return PLACE_OK;
 	}
-	private void rewrite(int from, int to) {
-		if(from != to){
-			for (int i = 0; i < width; i++) {
-				grid[i][to] = grid[i][from];
+
+	/*
+	 Rebuilds colHeight and maxH from the rows below top.
+	 Walks down from the top keeping a mask of the columns already
+	 seen, so it stops as soon as every column has been found.
+	 Only the columns that actually changed get journaled.
+	*/
+	private void recomputeHeights(int top) {
+		int[] heights = scratchHeights;
+		Arrays.fill(heights, 0);
+		int newMaxH = 0;
+		long seen = 0;
+		for (int j = top - 1; j >= 0 && seen != fullRow; j--) {
+			long fresh = row(j) & ~seen;
+			if(fresh == 0) continue;
+			if(newMaxH == 0) newMaxH = j + 1;
+			seen |= fresh;
+			while (fresh != 0) {
+				heights[Long.numberOfTrailingZeros(fresh)] = j + 1;
+				fresh &= fresh - 1;
 			}
-			rowWidth[to] = rowWidth[from];
 		}
+		for (int i = 0; i < width; i++) {
+			if(heights[i] != colHeight[i]) setColHeight(i, heights[i]);
+		}
+		if(newMaxH != maxH) setMaxH(newMaxH);
 	}
 
 
@@ -298,19 +857,7 @@ public class Board	{
 	*/
 	public void undo() {
 		if(!committed){
-			maxH = b_maxH;
-
-			int[] tmp = rowWidth;
-			rowWidth = b_rowWidth;
-			b_rowWidth = tmp;
-
-			tmp = colHeight;
-			colHeight = b_colHeight;
-			b_colHeight = tmp;
-
-			boolean[][] gtmp = grid;
-			grid = b_grid;
-			b_grid = gtmp;
+			rollback(undoBase);
 			sanityCheck();
 		}
 		committed = true;
@@ -319,11 +866,139 @@ public class Board	{
 	
 	/**
 	 Puts the board in the committed state.
+	 The undo journal is dropped -- it only ever covers
+	 the changes since the last commit -- unless there are
+	 open marks that may still roll back past this point.
+	*/
+	public void commit() {
+		committed = true;
+		if(openMarks == 0) jSize = 0;
+		undoBase = jSize;
+	}
+
+
+	/**
+	 Commits the current state and returns a checkpoint that
+	 rollbackTo() can later return the board to. Marks nest:
+	 any number of place/clearRows/commit steps can happen after
+	 a mark and are all unwound by rolling back to it, so a search
+	 can explore several plies on one board without copying it.
+	 Every mark must eventually be passed to either rollbackTo()
+	 or release().
+	*/
+	public int mark() {
+		commit();
+		if(openMarks == markAt.length) markAt = Arrays.copyOf(markAt, 2 * openMarks);
+		markAt[openMarks] = jSize;
+		return openMarks++;
+	}
+
+
+	/**
+	 Reverts the board to the state it was in when the given
+	 mark was taken, and closes that mark. The board is left
+	 committed. Marks taken after this one are closed too,
+	 and are no longer valid.
+	*/
+	public void rollbackTo(int mark) {
+		if(mark < 0 || mark >= openMarks){
+			throw new RuntimeException("Invalid board mark: " + mark);
+		}
+		rollback(markAt[mark]);
+		committed = true;
+		openMarks = mark;
+		if(openMarks == 0) jSize = 0;
+		undoBase = jSize;
+		sanityCheck();
+	}
+
+
+	/**
+	 Closes the given mark, keeping every change made since it was taken.
+	 It must be the innermost open mark.
 	*/
-	public void commit() { committed = true; }
+	public void release(int mark) {
+		if(mark < 0 || mark >= openMarks){
+			throw new RuntimeException("Invalid board mark: " + mark);
+		}
+		if(mark != openMarks - 1){
+			throw new RuntimeException("Board mark " + mark + " released with " + (openMarks - 1 - mark) + " marks inside it still open");
+		}
+		openMarks--;
+		commit();
+	}
 
 
 	
+	/**
+	 Returns a 64-bit hash of the blocks on the board, kept up to
+	 date by every place, clearRows, addGarbage and undo.
+	 Boards with the same blocks have the same hash, however they
+	 got there, so it can key transposition tables.
+	*/
+	/*
+	 Implementation: Zobrist-style, but keyed per row rather than
+	 per cell so that ring shifts stay O(1). Each row's bits are
+	 scrambled into a key, the key of row y is weighted by
+	 HASH_STEP^y, and the hash is the sum of them all (mod 2^64).
+	 Changing a row adds the difference of its two keys; moving
+	 every row by k multiplies the sum by HASH_STEP^k or its inverse.
+	 Empty rows have key 0, so they never contribute.
+	*/
+	public long getZobrist() {
+		return hash;
+	}
+
+	private long computeHash() {
+		long h = 0;
+		for (int j = 0; j < height; j++) {
+			h += rowKey(row(j)) * stepPow[j];
+		}
+		return h;
+	}
+
+	// murmur3 finalizer -- a bijection with rowKey(0) == 0
+	private static long rowKey(long bits) {
+		bits ^= bits >>> 33;
+		bits *= 0xff51afd7ed558ccdL;
+		bits ^= bits >>> 33;
+		bits *= 0xc4ceb9fe1a85ec53L;
+		bits ^= bits >>> 33;
+		return bits;
+	}
+
+	// inverse of an odd number mod 2^64, by Newton's iteration
+	private static long inverse(long odd) {
+		long inv = odd;
+		for (int i = 0; i < 5; i++) {
+			inv *= 2 - odd * inv;
+		}
+		return inv;
+	}
+
+
+	/**
+	 Returns true if the other board has the same size and
+	 the same blocks filled. Column heights, row widths and max
+	 height follow from the blocks, and undo state is not compared.
+	*/
+	public boolean equals(Object obj) {
+		if (obj == this) return true;
+		if (!(obj instanceof Board)) return false;
+
+		Board other = (Board)obj;
+		if(other.width != width || other.height != height || other.hash != hash) return false;
+		for (int j = 0; j < height; j++) {
+			if(other.row(j) != row(j)) return false;
+		}
+		return true;
+	}
+
+	public int hashCode() {
+		return (int) (hash ^ hash >>> 32);
+	}
+
+
 	/*
 	 Renders the board state as a big String, suitable for printing.
 	 This is the sort of print-obj-state utility that can help see complex
@@ -0,0 +1,66 @@
+// BoardKernel.java
+
+/**
+ Whole-board scans over packed rows, as kept by Board: row y is a long
+ with bit x set if (x, y) is filled. Board uses one to recount its
+ columns in fullCheck(), and the scans are public for evaluators that
+ want them.
+
+ getDefault() is the SIMD kernel built on the incubating Vector API
+ (jdk.incubator.vector) when it has been built (see vector/VectorBoardKernel)
+ and that module is present -- run with --add-modules jdk.incubator.vector --
+ and the scalar one otherwise.
+ The property -Dboard.kernel=scalar forces the scalar one.
+ Kernels keep no state, so one can be shared by any number of threads.
+*/
+public abstract class BoardKernel {
+    private static final BoardKernel SCALAR = new ScalarBoardKernel();
+    private static final BoardKernel DEFAULT = load();
+
+    public static BoardKernel getDefault() {
+        return DEFAULT;
+    }
+
+    public static BoardKernel scalar() {
+        return SCALAR;
+    }
+
+    private static BoardKernel load() {
+        if ("scalar".equals(System.getProperty("board.kernel"))) return SCALAR;
+        try {
+            return (BoardKernel) Class.forName("VectorBoardKernel").getDeclaredConstructor().newInstance();
+        } catch (Throwable e) {
+            return SCALAR;    // not built, or no jdk.incubator.vector module
+        }
+    }
+
+    public abstract String getName();
+
+    /**
+     Scans rows[0, count) of a board width wide. Fills heights[x] with
+     the height of column x and filled[x] with its filled blocks, and
+     returns the column transitions: filled/empty changes going up each
+     column from the floor (which counts as filled) to row count - 1.
+    */
+    public abstract int scan(long[] rows, int count, int width, int[] heights, int[] filled);
+
+    /**
+     Returns the row transitions of rows[0, count): filled/empty changes
+     along each row, the side walls counting as filled.
+    */
+    public static int rowTransitions(long[] rows, int count, int width) {
+        int transitions = 0;
+        for (int y = 0; y < count; y++) {
+            transitions += rowTransitions(rows[y], width);
+        }
+        return transitions;
+    }
+
+    /**
+     Returns the row transitions of one row, as rowTransitions() above.
+    */
+    public static int rowTransitions(long row, int width) {
+        final long full = width == Long.SIZE ? -1L : (1L << width) - 1;
+        return Long.bitCount((row ^ (row << 1 | 1L)) & full) + (int) (~row >>> (width - 1) & 1L);
+    }
+}
@@ -1,5 +1,8 @@
 import junit.framework.TestCase;
 
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
@@ -338,4 +341,395 @@ public class BoardTest extends TestCase {
 		exc = assertThrows(RuntimeException.class, () -> brd.checkRowSanity(arr, 2));
 		assertTrue(exc.getMessage().contains("Incorrectly stored max height"));
 	}
+
+	public void testWideBoard(){
+		Board wide = new Board(Board.MAX_WIDTH, 8);
+		Piece flatStick = pieces[Piece.STICK].fastRotation();
+		int res = Board.PLACE_OK;
+		for (int x = 0; x < wide.getWidth(); x += 4) {
+			res = wide.place(flatStick, x, 0);
+			wide.commit();
+		}
+		assertEquals(Board.PLACE_ROW_FILLED, res);
+		assertEquals(Board.MAX_WIDTH, wide.getRowWidth(0));
+		assertTrue(wide.getGrid(Board.MAX_WIDTH - 1, 0));
+
+		assertEquals(1, wide.clearRows());
+		wide.commit();
+		assertEquals(0, wide.getMaxHeight());
+		assertEquals(0, wide.getColumnHeight(Board.MAX_WIDTH - 1));
+	}
+
+	public void testTooWide(){
+		assertThrows(IllegalArgumentException.class, () -> new Board(Board.MAX_WIDTH + 1, 4));
+		assertThrows(IllegalArgumentException.class, () -> new Board(0, 4));
+	}
+
+	public void testUndoAfterClear(){
+		Piece flatStick = pieces[Piece.STICK].fastRotation();
+		Piece pyr = pieces[Piece.PYRAMID];
+		brd.place(flatStick, 0, 0);
+		brd.commit();
+		brd.place(pieces[Piece.SQUARE], 0, 1);
+		brd.commit();
+		String before = brd.toString();
+
+		int res = brd.place(pyr, 4, 0);
+		assertEquals(Board.PLACE_ROW_FILLED, res);
+		assertEquals(1, brd.clearRows());
+		assertEquals(2, brd.getMaxHeight());
+		brd.undo();
+
+		assertEquals(before, brd.toString());
+		assertEquals(3, brd.getMaxHeight());
+		assertEquals(4, brd.getRowWidth(0));
+		assertEquals(3, brd.getColumnHeight(1));
+		assertEquals(0, brd.getColumnHeight(5));
+	}
+
+	public void testNestedMarks(){
+		Piece flatStick = pieces[Piece.STICK].fastRotation();
+		Piece stick = pieces[Piece.STICK];
+		String empty = brd.toString();
+
+		int outer = brd.mark();
+		brd.place(flatStick, 0, 0);
+		brd.commit();
+		brd.place(flatStick, 0, 1);
+		brd.commit();
+		String twoRows = brd.toString();
+
+		int inner = brd.mark();
+		brd.place(pieces[Piece.PYRAMID], 4, 0);
+		assertEquals(1, brd.clearRows());
+		brd.commit();
+		assertEquals(5, brd.getRowWidth(0));
+		brd.place(stick, 6, 0);
+		brd.commit();
+		assertEquals(6, brd.getRowWidth(0));
+		assertEquals(4, brd.getMaxHeight());
+
+		brd.rollbackTo(inner);
+		assertEquals(twoRows, brd.toString());
+		assertEquals(2, brd.getMaxHeight());
+		assertEquals(4, brd.getRowWidth(1));
+
+		// undo only reaches back to the last commit, not past the mark
+		brd.place(stick, 6, 0);
+		brd.undo();
+		assertEquals(twoRows, brd.toString());
+
+		brd.rollbackTo(outer);
+		assertEquals(empty, brd.toString());
+		assertEquals(0, brd.getMaxHeight());
+		assertEquals(0, brd.getColumnHeight(0));
+
+		Exception exc = assertThrows(RuntimeException.class, () -> brd.rollbackTo(outer));
+		assertTrue(exc.getMessage().contains("Invalid board mark"));
+	}
+
+	public void testRollbackClosesInnerMarks(){
+		Piece flatStick = pieces[Piece.STICK].fastRotation();
+		Board brd = new Board(4, 8);
+		int outer = brd.mark();
+		int inner = brd.mark();
+		brd.place(pieces[Piece.SQUARE], 0, 0);
+		brd.rollbackTo(outer);
+
+		// the inner mark went with the outer one, so commits drop the journal again
+		assertThrows(RuntimeException.class, () -> brd.rollbackTo(inner));
+		assertThrows(RuntimeException.class, () -> brd.release(inner));
+		for (int i = 0; i < 100; i++) {
+			brd.place(flatStick, 0, 0);
+			assertEquals(1, brd.clearRows());
+			brd.commit();
+		}
+		brd.place(pieces[Piece.SQUARE], 0, 0);
+		brd.undo();
+		assertEquals(0, brd.getMaxHeight());
+
+		// and a fresh pair still nests
+		int a = brd.mark();
+		int b = brd.mark();
+		Exception exc = assertThrows(RuntimeException.class, () -> brd.release(a));
+		assertTrue(exc.getMessage().contains("still open"));
+		brd.place(pieces[Piece.SQUARE], 0, 0);
+		brd.release(b);
+		brd.rollbackTo(a);
+		assertEquals(0, brd.getMaxHeight());
+	}
+
+	public void testReleaseMark(){
+		int m = brd.mark();
+		brd.place(pieces[Piece.SQUARE], 0, 0);
+		brd.release(m);
+		brd.undo();
+		assertEquals(2, brd.getMaxHeight());
+		assertEquals(2, brd.getRowWidth(1));
+	}
+
+	public void testProbe(){
+		Piece flatStick = pieces[Piece.STICK].fastRotation();
+		Piece pyr = pieces[Piece.PYRAMID];
+		brd.place(flatStick, 0, 0);
+		brd.commit();
+		String before = brd.toString();
+
+		assertEquals(Board.PLACE_ROW_FILLED, brd.probe(pyr, 4, 0));
+		assertEquals(Board.PLACE_BAD, brd.probe(pyr, 2, 0));
+		assertEquals(Board.PLACE_OUT_BOUNDS, brd.probe(pyr, 5, 0));
+		assertEquals(Board.PLACE_OK, brd.probe(pyr, 0, 1));
+
+		assertEquals(0b01, brd.filledRows(pyr, 4, 0));
+		assertEquals(0, brd.filledRows(pyr, 0, 1));
+		assertEquals(0, brd.filledRows(pyr, 2, 0));
+
+		int[] heights = new int[brd.getWidth()];
+		assertTrue(brd.resultingHeights(pyr, 4, 0, heights));
+		assertArrayEquals(new int[]{ 1, 1, 1, 1, 1, 2, 1 }, heights);
+		assertFalse(brd.resultingHeights(pyr, 5, 0, heights));
+
+		// nothing above changed the board or its committed state
+		assertEquals(before, brd.toString());
+		assertEquals(1, brd.getMaxHeight());
+		assertEquals(Board.PLACE_ROW_FILLED, brd.place(pyr, 4, 0));
+	}
+
+	public void testSampledCheck(){
+		Piece square = pieces[Piece.SQUARE];
+		brd.setCheckMode(Board.CheckMode.SAMPLED, 3);
+		brd.colHeight[6] = 5;	// corrupt a column the pieces never touch
+
+		brd.place(square, 0, 0);
+		brd.commit();
+		brd.place(square, 2, 0);
+		brd.commit();
+		Exception exc = assertThrows(RuntimeException.class, () -> brd.place(square, 4, 0));
+		assertTrue(exc.getMessage().contains("Incorrectly stored column height on col: 6"));
+
+		brd.setCheckMode(Board.CheckMode.OFF, 1);
+		brd.undo();
+		assertDoesNotThrow(() -> brd.place(square, 4, 0));
+	}
+
+	public void testShadowCheck() throws InterruptedException {
+		Piece square = pieces[Piece.SQUARE];
+		brd.setCheckMode(Board.CheckMode.SHADOW, 1);
+		brd.place(square, 0, 0);
+		brd.commit();
+		BoardVerifier.drain();
+		assertDoesNotThrow(() -> brd.sanityCheck());
+
+		brd.colHeight[6] = 5;
+		brd.place(square, 2, 0);
+		brd.commit();
+		BoardVerifier.drain();
+		Exception exc = assertThrows(RuntimeException.class, () -> brd.sanityCheck());
+		assertTrue(exc.getMessage().contains("Incorrectly stored column height on col: 6"));
+	}
+
+	public void testClearBottomOfTallStack(){
+		Board tall = new Board(4, 10);
+		tall.setDebugMode(true);
+		Piece stick = pieces[Piece.STICK];
+		Piece square = pieces[Piece.SQUARE];
+		for (int x = 0; x < 4; x++) {
+			tall.place(stick, x, 0);
+			tall.commit();
+		}
+		tall.place(square, 0, 4);
+		tall.commit();
+		String before = tall.toString();
+
+		tall.place(square, 2, 4);
+		assertEquals(6, tall.clearRows());
+		assertEquals(0, tall.getMaxHeight());
+		tall.undo();
+		assertEquals(before, tall.toString());
+
+		tall.place(square, 0, 6);
+		assertEquals(4, tall.clearRows());
+		tall.commit();
+		assertEquals(4, tall.getMaxHeight());
+		assertEquals(2, tall.getRowWidth(0));
+		assertEquals(2, tall.getRowWidth(3));
+		assertEquals(0, tall.getRowWidth(4));
+		assertEquals(0, tall.getColumnHeight(3));
+	}
+
+	public void testGarbage(){
+		Piece square = pieces[Piece.SQUARE];
+		brd.setDebugMode(true);
+		brd.place(square, 0, 0);
+		brd.commit();
+		String before = brd.toString();
+
+		assertEquals(Board.PLACE_OK, brd.addGarbage(2, 3));
+		assertEquals(4, brd.getMaxHeight());
+		assertEquals(6, brd.getRowWidth(0));
+		assertEquals(2, brd.getRowWidth(2));
+		assertFalse(brd.getGrid(3, 1));
+		assertEquals(4, brd.getColumnHeight(0));
+		assertEquals(2, brd.getColumnHeight(2));
+		assertEquals(0, brd.getColumnHeight(3));
+		brd.undo();
+		assertEquals(before, brd.toString());
+
+		assertEquals(Board.PLACE_OUT_BOUNDS, brd.addGarbage(11, 0));
+		brd.undo();
+		assertEquals(before, brd.toString());
+	}
+
+	// Random place/clear/garbage/undo sequences, checked after every operation.
+	public void testRandomOperations(){
+		java.util.Random rand = new java.util.Random(108);
+		Board board = new Board(6, 16);
+		board.setDebugMode(true);
+		for (int n = 0; n < 2000; n++) {
+			String before = board.toString();
+			Piece piece = pieces[rand.nextInt(pieces.length)];
+			for (int r = rand.nextInt(4); r > 0; r--) piece = piece.fastRotation();
+			int x = rand.nextInt(board.getWidth() - piece.getWidth() + 1);
+			int y = board.dropHeight(piece, x);
+			if (rand.nextInt(10) == 0) {
+				board.addGarbage(1 + rand.nextInt(2), rand.nextInt(board.getWidth()));
+			} else if (board.place(piece, x, y) == Board.PLACE_ROW_FILLED) {
+				board.clearRows();
+			}
+
+			if (rand.nextInt(3) == 0) {
+				board.undo();
+				assertEquals(before, board.toString());
+			} else if (board.getMaxHeight() > board.getHeight() - 4) {
+				board = new Board(6, 16);
+				board.setDebugMode(true);
+			} else {
+				board.commit();
+			}
+		}
+	}
+
+	public void testHashAndEquals(){
+		Piece square = pieces[Piece.SQUARE];
+		Piece stick = pieces[Piece.STICK];
+		Board other = new Board(7, 12);
+		assertEquals(brd, other);
+		assertEquals(0, brd.getZobrist());
+
+		// same position, different move orders
+		brd.place(square, 0, 0);
+		brd.commit();
+		brd.place(stick, 4, 0);
+		brd.commit();
+		other.place(stick, 4, 0);
+		other.commit();
+		assertFalse(brd.equals(other));
+		assertFalse(brd.getZobrist() == other.getZobrist());
+		other.place(square, 0, 0);
+		other.commit();
+		assertEquals(brd, other);
+		assertEquals(brd.getZobrist(), other.getZobrist());
+		assertEquals(brd.hashCode(), other.hashCode());
+
+		long before = brd.getZobrist();
+		brd.place(square, 2, 0);
+		assertFalse(before == brd.getZobrist());
+		brd.undo();
+		assertEquals(before, brd.getZobrist());
+
+		// clearing and garbage move rows, the hash follows the blocks
+		Board cleared = new Board(4, 8);
+		cleared.place(square, 0, 0);
+		cleared.commit();
+		cleared.place(square, 2, 0);
+		cleared.commit();
+		cleared.place(pieces[Piece.L1], 0, 2);
+		cleared.commit();
+		cleared.clearRows();
+		cleared.commit();
+		Board fresh = new Board(4, 8);
+		fresh.place(pieces[Piece.L1], 0, 0);
+		fresh.commit();
+		assertEquals(fresh, cleared);
+		assertEquals(fresh.getZobrist(), cleared.getZobrist());
+
+		cleared.addGarbage(1, 3);
+		assertFalse(fresh.equals(cleared));
+		cleared.undo();
+		assertEquals(fresh.getZobrist(), cleared.getZobrist());
+		assertFalse(brd.equals("foo"));
+	}
+
+	public void testFeatures(){
+		brd.setDebugMode(true);
+		Piece flatStick = pieces[Piece.STICK].fastRotation();
+		Piece stick = pieces[Piece.STICK];
+		brd.place(stick, 0, 0);
+		brd.commit();
+		brd.place(flatStick, 1, 1);	// covers x 1..4 leaving holes at y 0
+		brd.commit();
+
+		assertEquals(4 + 4 * 2, brd.getAggregateHeight());
+		assertEquals(8, brd.getBlockCount());
+		assertEquals(4, brd.getHoles());
+		assertEquals(1, brd.getColumnHoles(2));
+		assertEquals(0, brd.getColumnHoles(0));
+		assertEquals(2 + 2, brd.getBumpiness());
+		assertEquals(0, brd.getWellDepth(1));
+		assertEquals(0, brd.getWellDepth(6));
+		assertEquals(0, brd.getWellSum());
+
+		// a one column gap makes a well
+		brd.place(flatStick, 0, 4);
+		brd.commit();
+		brd.place(stick, 5, 0);
+		brd.commit();
+		assertEquals(4, brd.getWellDepth(6));	// against the wall
+		assertEquals(4 - 2, brd.getWellDepth(4));
+		assertEquals(0, brd.getWellDepth(5));
+		assertEquals(6, brd.getWellSum());
+
+		int holes = brd.getHoles(), bump = brd.getBumpiness(), wells = brd.getWellSum();
+		brd.addGarbage(1, 6);
+		brd.undo();
+		assertEquals(holes, brd.getHoles());
+		assertEquals(bump, brd.getBumpiness());
+		assertEquals(wells, brd.getWellSum());
+	}
+
+	public void testKernels() {
+		Random rand = new Random(19);
+		for (int width : new int[] { 1, 10, 33, 64 }) {
+			long full = width == Long.SIZE ? -1L : (1L << width) - 1;
+			long[] rows = new long[24];
+			for (int y = 0; y < 20; y++) rows[y] = rand.nextLong() & rand.nextLong() & full;
+
+			// counted block by block
+			int[] heights = new int[width], filled = new int[width];
+			int colT = 0;
+			for (int x = 0; x < width; x++) {
+				boolean below = true;
+				for (int y = 0; y < rows.length; y++) {
+					boolean here = (rows[y] >>> x & 1L) != 0;
+					if (here) {
+						heights[x] = y + 1;
+						filled[x]++;
+					}
+					if (here != below) colT++;
+					below = here;
+				}
+			}
+
+			for (BoardKernel kernel : new BoardKernel[] { BoardKernel.scalar(), BoardKernel.getDefault() }) {
+				int[] gotHeights = new int[width], gotFilled = new int[width];
+				assertEquals(colT, kernel.scan(rows, rows.length, width, gotHeights, gotFilled));
+				assertArrayEquals(heights, gotHeights);
+				assertArrayEquals(filled, gotFilled);
+			}
+		}
+		// a full row has no transitions, an empty one just the two walls
+		assertEquals(0, BoardKernel.rowTransitions(new long[] { 0x3ff }, 1, 10));
+		assertEquals(2, BoardKernel.rowTransitions(new long[] { 0 }, 1, 64));
+		assertEquals(4, BoardKernel.rowTransitions(0b0110L, 4));
+	}
 }
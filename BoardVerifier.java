@@ -0,0 +1,69 @@
+// BoardVerifier.java
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ Background consistency checker for boards in the SHADOW check mode.
+ A board hands over a private snapshot of its state, and a single
+ daemon thread runs the full sanity check on it, so the game thread
+ only pays for the copy.
+ At most PENDING_LIMIT snapshots wait at a time -- when the checker
+ falls behind, new snapshots are dropped instead of piling up.
+ A failure is passed back to the owning board, which throws it
+ from its next sanityCheck().
+*/
+class BoardVerifier {
+	public static final int PENDING_LIMIT = 16;
+
+	private static final AtomicInteger pending = new AtomicInteger();
+	private static final AtomicInteger dropped = new AtomicInteger();
+	private static final ExecutorService checker = Executors.newSingleThreadExecutor(r -> {
+		Thread t = new Thread(r, "board-verifier");
+		t.setDaemon(true);
+		return t;
+	});
+
+	private BoardVerifier() { }
+
+	/**
+	 Queues the snapshot of owner for checking, or drops it
+	 if too many snapshots are already waiting.
+	*/
+	static void submit(Board owner, Board snapshot) {
+		if (pending.incrementAndGet() > PENDING_LIMIT) {
+			pending.decrementAndGet();
+			dropped.incrementAndGet();
+			return;
+		}
+		checker.execute(() -> {
+			try {
+				snapshot.fullCheck();
+			} catch (RuntimeException e) {
+				owner.shadowFailed(e);
+			} finally {
+				pending.decrementAndGet();
+			}
+		});
+	}
+
+	/**
+	 Blocks until every snapshot queued so far has been checked.
+	*/
+	static void drain() throws InterruptedException {
+		try {
+			checker.submit(() -> { }).get();
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 Returns how many snapshots were dropped because the checker was busy.
+	*/
+	static int getDropped() {
+		return dropped.get();
+	}
+}
@@ -23,4 +23,35 @@ public interface Brain {
      (just to save the memory allocation).
     */
     public Brain.Move bestMove(Board board, Piece piece, int limitHeight, Brain.Move move);
+
+    /**
+     Like bestMove() above, but also given the pieces that will be played
+     after this one, next first (see JTetris.getPreview()), so the brain
+     can plan ahead. The returned move is still for piece only.
+     Brains that do not look ahead just ignore the preview.
+    */
+    public default Brain.Move bestMove(Board board, Piece piece, Piece[] preview, int limitHeight, Brain.Move move) {
+        return bestMove(board, piece, limitHeight, move);
+    }
+
+    /**
+     Finds the best move for many boards at once: entry i of out gets
+     the answer for boards[i] and pieces[i], just as bestMove() would give
+     it. The boards should all be committed and all be different objects,
+     so a brain can work on them in parallel; limitHeight is shared.
+     If out is null a new buffer is allocated; either way it is returned.
+     This version just calls bestMove() for each board in turn.
+    */
+    public default MoveBuffer bestMoves(Board[] boards, Piece[] pieces, int limitHeight, MoveBuffer out) {
+        if (boards.length != pieces.length) {
+            throw new IllegalArgumentException("Got " + boards.length + " boards but " + pieces.length + " pieces");
+        }
+        if (out == null) out = new MoveBuffer(boards.length);
+        out.resize(boards.length);
+        Brain.Move move = new Brain.Move();
+        for (int i = 0; i < boards.length; i++) {
+            out.set(i, bestMove(boards[i], pieces[i], limitHeight, move));
+        }
+        return out;
+    }
 }
@@ -1,5 +1,7 @@
 // DefaultBrain.java
 
+import java.util.Arrays;
+
 /**
  Provided code.
  A simple Brain implementation.
@@ -10,104 +12,238 @@
  For each play, it uses the rateBoard() message to rate how
  good the resulting board is and it just remembers the
  play with the lowest score. Undo() is used to back-out
- each play before trying the next. To experiment with writing your own
- brain -- just subclass off DefaultBrain and override rateBoard().
+ each play before trying the next. rateBoard() asks the brain's
+ Evaluator, so new weights just need a new WeightedEvaluator;
+ subclassing and overriding rateBoard() works too.
+
+ Scores and whole answers are cached in a TranspositionTable keyed
+ by the board hash, so a position seen before costs a lookup.
+ Because of the cache, and the candidate buffers bestMove() reuses,
+ a DefaultBrain should only be used by one thread (rateBoard() itself
+ is safe to share).
 */
 
 public class DefaultBrain implements Brain {
+    public static final int CACHE_SIZE = 1 << 16;
+
+    // cache depths -- rateBoard() scores are depth 0, bestMove() answers depth 1
+    private static final int EVAL_DEPTH = 0;
+    private static final int MOVE_DEPTH = 1;
+
+    // Remembers scores and answers by board hash, or null for no caching.
+    // A cache belongs to one brain on one thread.
+    private TranspositionTable cache;
+    private final Evaluator evaluator;
+    private final boolean cacheScores;  // false if scores depend on more than the board
+
+    // reused by bestMove()
+    private final Candidates candidates = new Candidates();
+
+    /**
+     The candidate plays of one piece as parallel arrays, for
+     generate() to fill and rateAll() to score: each play packed
+     into an int, its score, and the rotations the packed rotation
+     numbers stand for. Meant to be reused, so scoring many boards
+     allocates nothing; one belongs to one thread at a time.
+    */
+    public static final class Candidates {
+        private int[] plays = new int[64];
+        private double[] scores = new double[64];
+        private final Piece[] rotations = new Piece[4];
+        private int count;
+
+        public int size() {
+            return count;
+        }
+
+        public int getX(int i) {
+            return plays[i] & 0xff;
+        }
+
+        public int getY(int i) {
+            return (plays[i] >>> 8) & 0xfff;
+        }
+
+        public Piece getPiece(int i) {
+            return rotations[plays[i] >>> 20];
+        }
+
+        /** NaN if the play could not be placed */
+        public double getScore(int i) {
+            return scores[i];
+        }
+
+        /**
+         Returns the first play with the lowest score, or -1 if none scored.
+        */
+        public int best() {
+            double bestScore = 1e20;
+            int best = -1;
+            for (int i = 0; i < count; i++) {
+                if (scores[i] < bestScore) {
+                    bestScore = scores[i];
+                    best = i;
+                }
+            }
+            return best;
+        }
+    }
+
+    /**
+     Creates a brain with its own CACHE_SIZE transposition table,
+     scoring with WeightedEvaluator.classic().
+    */
+    public DefaultBrain() {
+        this(new TranspositionTable(CACHE_SIZE));
+    }
+
+    /**
+     Creates a brain that caches in the given table, or does not
+     cache at all if it is null.
+    */
+    public DefaultBrain(TranspositionTable cache) {
+        this(cache, WeightedEvaluator.classic());
+    }
+
+    public DefaultBrain(TranspositionTable cache, Evaluator evaluator) {
+        this.cache = cache;
+        this.evaluator = evaluator;
+        this.cacheScores = !evaluator.usesPlacement();
+    }
+
+    public TranspositionTable getCache() {
+        return cache;
+    }
+
+    public Evaluator getEvaluator() {
+        return evaluator;
+    }
+
     /**
      Given a piece and a board, returns a move object that represents
      the best play for that piece, or returns null if no play is possible.
      See the Brain interface for details.
+     Once warmed up this allocates nothing, as long as a move is passed in.
     */
     public Brain.Move bestMove(Board board, Piece piece, int limitHeight, Brain.Move move) {
         // Allocate a move object if necessary
         if (move==null) move = new Brain.Move();
         
-        double bestScore = 1e20;
-        int bestX = 0;
-        int bestY = 0;
-        Piece bestPiece = null;
-        Piece current = piece;
-        
         board.commit();
+
+        // the same board and piece always get the same answer
+        long key = 0;
+        if (cache != null) {
+            cache.nextGeneration();
+            key = TranspositionTable.key(board.getZobrist(), piece.getShapeKey() ^ board.getWidth(), limitHeight);
+            int slot = cache.find(key, MOVE_DEPTH);
+            if (slot >= 0) return unpackMove(cache.getMove(slot), cache.getScore(slot), piece, move);
+        }
         
-        // loop through all the rotations
-        while (true) {
+        // score every candidate, then keep the first lowest
+        generate(board, piece, limitHeight, candidates);
+        score(board, candidates, true);
+        int i = candidates.best();
+        int best = i < 0 ? TranspositionTable.NO_MOVE : candidates.plays[i];
+        double bestScore = i < 0 ? 1e20 : candidates.scores[i];
+
+        if (cache != null) cache.store(key, MOVE_DEPTH, bestScore, best);
+        return unpackMove(best, bestScore, piece, move);
+    }
+
+
+    /**
+     Fills c with every landing play of the piece on the committed
+     board that stays under limitHeight, rotation by rotation and left
+     to right, the order bestMove() breaks ties in.
+    */
+    public void generate(Board board, Piece piece, int limitHeight, Candidates c) {
+        int count = 0;
+        Piece current = piece;
+        int rotation = 0;
+        do {
+            c.rotations[rotation] = current;
             final int yBound = limitHeight - current.getHeight()+1;
             final int xBound = board.getWidth() - current.getWidth()+1;
-            
-            // For current rotation, try all the possible columns
+            if (count + Math.max(0, xBound) > c.plays.length) {
+                c.plays = Arrays.copyOf(c.plays, 2 * (count + xBound));
+                c.scores = new double[c.plays.length];
+            }
             for (int x = 0; x<xBound; x++) {
                 int y = board.dropHeight(current, x);
-                if (y<yBound) {    // piece does not stick up too far
-                    int result = board.place(current, x, y);
-                    if (result <= Board.PLACE_ROW_FILLED) {
-                        if (result == Board.PLACE_ROW_FILLED) board.clearRows();
-                        
-                        double score = rateBoard(board);
-                        
-                        if (score<bestScore) {
-                            bestScore = score;
-                            bestX = x;
-                            bestY = y;
-                            bestPiece = current;
-                        }
-                    }
-                    
-                    board.undo();    // back out that play, loop around for the next
-                }
+                if (y<yBound) c.plays[count++] = packMove(x, y, rotation);
             }
-            
             current = current.fastRotation();
-            if (current == piece) break;    // break if back to original rotation
-        }
-        
-        if (bestPiece == null) return(null);    // could not find a play at all!
-        else {
-            move.x = bestX;
-            move.y = bestY;
-            move.piece = bestPiece;
-            move.score = bestScore;
-            return(move);
+            rotation++;
+        } while (current != piece);
+        c.count = count;
+    }
+
+
+    /**
+     Scores every play in c with rateBoard(), playing each on the board
+     and backing it out again. Unlike bestMove() this skips the cache,
+     so with a rateBoard() that is safe to share, several threads can
+     score their own boards and candidates with one brain at once.
+    */
+    public void rateAll(Board board, Candidates c) {
+        score(board, c, false);
+    }
+
+    private void score(Board board, Candidates c, boolean cached) {
+        for (int i = 0; i < c.count; i++) {
+            int packed = c.plays[i];
+            int result = board.place(c.rotations[packed >>> 20], packed & 0xff, (packed >>> 8) & 0xfff);
+            if (result <= Board.PLACE_ROW_FILLED) {
+                if (result == Board.PLACE_ROW_FILLED) board.clearRows();
+                c.scores[i] = cached ? rate(board) : rateBoard(board);
+            } else {
+                c.scores[i] = Double.NaN;
+            }
+            board.undo();    // back out that play, loop around for the next
         }
     }
+
+
+    /*
+     rateBoard() through the cache, keyed by the board hash.
+    */
+    private double rate(Board board) {
+        if (cache == null || !cacheScores) return rateBoard(board);
+
+        long key = TranspositionTable.key(board.getZobrist(), board.getWidth(), EVAL_DEPTH);
+        int slot = cache.find(key, EVAL_DEPTH);
+        if (slot >= 0) return cache.getScore(slot);
+
+        double score = rateBoard(board);
+        cache.store(key, EVAL_DEPTH, score, TranspositionTable.NO_MOVE);
+        return score;
+    }
+
+    // cached moves are packed as x | y << 8 | rotation << 20
+    private static int packMove(int x, int y, int rotation) {
+        return x | y << 8 | rotation << 20;
+    }
+
+    private static Brain.Move unpackMove(int packed, double score, Piece piece, Brain.Move move) {
+        if (packed == TranspositionTable.NO_MOVE) return null;
+        Piece current = piece;
+        for (int r = packed >>> 20; r > 0; r--) current = current.fastRotation();
+        move.x = packed & 0xff;
+        move.y = (packed >>> 8) & 0xfff;
+        move.piece = current;
+        move.score = score;
+        return move;
+    }
     
     
     /*
-     A simple brain function.
      Given a board, produce a number that rates
      that board position -- larger numbers for worse boards.
-     This version just counts the height
-     and the number of "holes" in the board.
+     This version asks the evaluator.
     */
     public double rateBoard(Board board) {
-        final int width = board.getWidth();
-        final int maxHeight = board.getMaxHeight();
-        
-        int sumHeight = 0;
-        int holes = 0;
-        
-        // Count the holes, and sum up the heights
-        for (int x=0; x<width; x++) {
-            final int colHeight = board.getColumnHeight(x);
-            sumHeight += colHeight;
-            
-            int y = colHeight - 2;    // addr of first possible hole
-            
-            while (y>=0) {
-                if  (!board.getGrid(x,y)) {
-                    holes++;
-                }
-                y--;
-            }
-        }
-        
-        double avgHeight = ((double)sumHeight)/width;
-        
-        // Add up the counts to make an overall score
-        // The weights, 8, 40, etc., are just made up numbers that appear to work
-        return (8*maxHeight + 40*avgHeight + 1.25*holes);    
+        return evaluator.evaluate(board);
     }
 
 }
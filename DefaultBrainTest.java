@@ -0,0 +1,371 @@
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+/*
+  Unit tests for DefaultBrain and the brains built on it.
+ */
+public class DefaultBrainTest extends TestCase {
+	private Piece[] pieces;
+	private Board board;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		pieces = Piece.getPieces();
+		board = new Board(10, 24);
+		board.setCheckMode(Board.CheckMode.OFF, 1);
+	}
+
+	// Plays a few random drops so the tests have an uneven board
+	private void scramble(Board b, long seed, int drops) {
+		Random rand = new Random(seed);
+		for (int n = 0; n < drops; n++) {
+			Piece p = pieces[rand.nextInt(pieces.length)];
+			int x = rand.nextInt(b.getWidth() - p.getWidth() + 1);
+			int y = b.dropHeight(p, x);
+			if (y + p.getHeight() > b.getHeight() - 4) break;
+			if (b.place(p, x, y) == Board.PLACE_ROW_FILLED) b.clearRows();
+			b.commit();
+		}
+	}
+
+	private void assertSameMove(Brain.Move exp, Brain.Move got) {
+		assertEquals(exp.x, got.x);
+		assertEquals(exp.y, got.y);
+		assertTrue(exp.piece.equals(got.piece));
+		assertEquals(exp.score, got.score, 1e-9);
+	}
+
+	public void testCacheHits() {
+		scramble(board, 1, 12);
+		DefaultBrain cached = new DefaultBrain();
+		DefaultBrain plain = new DefaultBrain(null);
+		TranspositionTable cache = cached.getCache();
+
+		for (Piece p : pieces) {
+			Brain.Move exp = plain.bestMove(board, p, 20, null);
+			assertSameMove(exp, cached.bestMove(board, p, 20, null));
+		}
+		long misses = cache.getMisses();
+
+		// the second round is answered straight from the cache
+		long hits = cache.getHits();
+		for (Piece p : pieces) {
+			Brain.Move exp = plain.bestMove(board, p, 20, null);
+			assertSameMove(exp, cached.bestMove(board, p, 20, null));
+		}
+		assertEquals(hits + pieces.length, cache.getHits());
+		assertEquals(misses, cache.getMisses());
+	}
+
+	public void testTableReplacement() {
+		TranspositionTable table = new TranspositionTable(3);
+		assertEquals(4, table.getCapacity());
+
+		long a = 5, b = a + table.getCapacity();	// same slot
+		assertTrue(table.store(a, 2, 1.5, 7));
+		assertEquals(-1, table.find(a, 3));
+		int slot = table.find(a, 2);
+		assertEquals(1.5, table.getScore(slot), 0);
+		assertEquals(7, table.getMove(slot));
+
+		// a shallower result does not evict a deeper one of this generation
+		assertFalse(table.store(b, 1, 2.5, 8));
+		assertEquals(-1, table.find(b, 0));
+		table.nextGeneration();
+		assertTrue(table.store(b, 1, 2.5, 8));
+		assertEquals(-1, table.find(a, 0));
+		assertEquals(2.5, table.getScore(table.find(b, 1)), 0);
+		assertEquals(1, table.getReplacements());
+	}
+
+	public void testParallelMatchesSequential() {
+		DefaultBrain sequential = new DefaultBrain(null);
+		ParallelBrain parallel = new ParallelBrain();
+		for (long seed = 0; seed < 30; seed++) {
+			Board b = new Board(seed % 3 == 0 ? Board.MAX_WIDTH : 10, 24);
+			b.setCheckMode(Board.CheckMode.OFF, 1);
+			scramble(b, seed, (int) (seed * 2));
+			for (Piece p : pieces) {
+				Brain.Move exp = sequential.bestMove(b, p, 20, null);
+				Brain.Move got = parallel.bestMove(b, p, 20, new Brain.Move());
+				if (exp == null) assertNull(got);
+				else assertSameMove(exp, got);
+			}
+		}
+	}
+
+	public void testBeamSearch() {
+		DefaultBrain single = new DefaultBrain(null);
+		BeamBrain beam = new BeamBrain(3, 4);
+		for (long seed = 0; seed < 10; seed++) {
+			Board b = new Board(10, 24);
+			scramble(b, seed, 10);
+			Board before = b.copy();
+			Piece p = pieces[(int) seed % pieces.length];
+
+			// with no preview it is the one ply search
+			assertSameMove(single.bestMove(b, p, 20, null), beam.bestMove(b, p, 20, null));
+
+			Piece[] preview = { pieces[Piece.STICK], pieces[Piece.S1] };
+			Brain.Move move = beam.bestMove(b, p, preview, 20, null);
+			assertNotNull(move);
+			assertEquals(before, b);
+			assertEquals(move.y, b.dropHeight(move.piece, move.x));
+			assertTrue(b.probe(move.piece, move.x, move.y) <= Board.PLACE_ROW_FILLED);
+		}
+	}
+
+	public void testExpectimax() {
+		Board b = new Board(10, 24);
+		scramble(b, 7, 10);
+		Board before = b.copy();
+		DefaultBrain single = new DefaultBrain(null);
+
+		// depth 1 is DefaultBrain
+		for (Piece p : pieces) {
+			assertSameMove(single.bestMove(b, p, 20, null), new ExpectimaxBrain(1).bestMove(b, p, 20, null));
+		}
+
+		ExpectimaxBrain deep = new ExpectimaxBrain(2);
+		for (Piece p : pieces) {
+			Brain.Move move = deep.bestMove(b, p, 20, null);
+			assertEquals(before, b);
+			assertEquals(move.y, b.dropHeight(move.piece, move.x));
+			// the same search twice gives the same answer
+			Brain.Move again = deep.bestMove(b, p, 20, null);
+			assertSameMove(move, again);
+		}
+	}
+
+	public void testAnytimeDeadline() {
+		Board b = new Board(10, 24);
+		scramble(b, 3, 10);
+		Board before = b.copy();
+		ExpectimaxBrain brain = new ExpectimaxBrain(3);
+		Piece p = pieces[Piece.L2];
+		AnytimeBrain.Report report = new AnytimeBrain.Report();
+
+		// a deadline already gone still gets the depth 1 answer
+		Brain.Move move = brain.bestMove(b, p, 20, null, System.nanoTime() - 1, report);
+		assertSameMove(new DefaultBrain(null).bestMove(b, p, 20, null), move);
+		assertEquals(1, report.depth);
+		assertTrue(report.timedOut);
+		assertTrue(report.nodes > 0);
+		assertEquals(before, b);
+
+		// with time to spare it finishes and matches the fixed depth search
+		move = brain.bestMove(b, p, 20, null, System.nanoTime() + 60_000_000_000L, report);
+		assertEquals(3, report.depth);
+		assertFalse(report.timedOut);
+		assertSameMove(brain.bestMove(b, p, 20, null), move);
+		assertEquals(before, b);
+
+		// a short deadline stops part way and still answers
+		long start = System.nanoTime();
+		move = brain.bestMove(b, p, 20, null, start + 5_000_000L, report);
+		assertNotNull(move);
+		assertTrue(report.depth >= 1);
+		assertEquals(before, b);
+	}
+
+	public void testAdversary() {
+		scramble(board, 5, 12);
+		Board before = board.copy();
+		long later = System.nanoTime() + 60_000_000_000L;
+
+		// one ply matches asking DefaultBrain about each piece in turn
+		DefaultBrain plain = new DefaultBrain(null);
+		Piece exp = null;
+		double worst = Double.NEGATIVE_INFINITY;
+		for (Piece p : pieces) {
+			Brain.Move move = plain.bestMove(board, p, 20, null);
+			if (move != null && move.score > worst) {
+				worst = move.score;
+				exp = p;
+			}
+		}
+		Adversary adversary = new Adversary(1);
+		assertTrue(exp.equals(adversary.worstPiece(board, 20, later)));
+		assertEquals(before, board);
+
+		// asking again about the same board is a cache hit
+		long hits = adversary.getCache().getHits();
+		assertTrue(exp.equals(adversary.worstPiece(board, 20, later)));
+		assertEquals(hits + 1, adversary.getCache().getHits());
+
+		// a look ahead that runs out of time falls back to one ply, uncached
+		Adversary deep = new Adversary(2);
+		assertTrue(exp.equals(deep.worstPiece(board, 20, System.nanoTime() - 1)));
+		assertEquals(0, deep.getCache().getHits());
+		Piece piece = deep.worstPiece(board, 20, later);
+		assertNotNull(piece);
+		assertTrue(piece.equals(deep.worstPiece(board, 20, later)));
+		assertEquals(1, deep.getCache().getHits());
+		assertEquals(before, board);
+	}
+
+	public void testBatch() {
+		int n = 37;
+		Board[] boards = new Board[n];
+		Piece[] batch = new Piece[n];
+		for (int i = 0; i < n; i++) {
+			boards[i] = new Board(10, 24);
+			boards[i].setCheckMode(Board.CheckMode.OFF, 1);
+			scramble(boards[i], 100 + i, i % 15);
+			batch[i] = pieces[i % pieces.length];
+		}
+		DefaultBrain plain = new DefaultBrain(null);
+		MoveBuffer looped = plain.bestMoves(boards, batch, 20, null);
+		MoveBuffer parallel = new ParallelBrain().bestMoves(boards, batch, 20, new MoveBuffer(1));
+		assertEquals(n, looped.size());
+		assertEquals(n, parallel.size());
+		for (int i = 0; i < n; i++) {
+			Brain.Move exp = plain.bestMove(boards[i], batch[i], 20, null);
+			assertSameMove(exp, looped.get(i, null));
+			assertSameMove(exp, parallel.get(i, null));
+		}
+
+		try {
+			plain.bestMoves(boards, new Piece[1], 20, null);
+			fail("mismatched batch");
+		} catch (IllegalArgumentException expected) {
+		}
+
+		// with no room at all no board has a play
+		new ParallelBrain().bestMoves(boards, batch, 0, parallel);
+		for (int i = 0; i < n; i++) {
+			assertFalse(parallel.hasMove(i));
+			assertNull(parallel.get(i, null));
+		}
+	}
+
+	public void testNoAllocation() {
+		com.sun.management.ThreadMXBean threads =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		scramble(board, 9, 10);
+		DefaultBrain cached = new DefaultBrain();
+		DefaultBrain plain = new DefaultBrain(null);
+		Brain.Move move = new Brain.Move();
+
+		for (int n = 0; n < 2000; n++) {
+			for (Piece p : pieces) {
+				cached.bestMove(board, p, 20, move);
+				plain.bestMove(board, p, 20, move);
+			}
+		}
+		// what measuring alone costs, if anything
+		long before = threads.getCurrentThreadAllocatedBytes();
+		long overhead = threads.getCurrentThreadAllocatedBytes() - before;
+
+		before = threads.getCurrentThreadAllocatedBytes();
+		for (int n = 0; n < 100; n++) {
+			for (Piece p : pieces) {
+				cached.bestMove(board, p, 20, move);
+				plain.bestMove(board, p, 20, move);
+			}
+		}
+		assertEquals(overhead, threads.getCurrentThreadAllocatedBytes() - before);
+	}
+
+	public void testWeightedFeatures() {
+		scramble(board, 11, 14);
+		double[] f = new double[WeightedEvaluator.FEATURE_COUNT];
+		WeightedEvaluator.classic().features(board, f);
+
+		// the transitions counted block by block, walls and floor filled
+		int rowT = 0, colT = 0;
+		for (int y = 0; y < board.getMaxHeight(); y++) {
+			for (int x = 0; x <= board.getWidth(); x++) {
+				boolean left = x == 0 || board.getGrid(x - 1, y);
+				boolean here = x == board.getWidth() || board.getGrid(x, y);
+				if (left != here) rowT++;
+			}
+			for (int x = 0; x < board.getWidth(); x++) {
+				boolean under = y == 0 || board.getGrid(x, y - 1);
+				if (under != board.getGrid(x, y)) colT++;
+			}
+		}
+		assertEquals(rowT, (int) f[WeightedEvaluator.ROW_TRANSITIONS]);
+		assertEquals(colT, (int) f[WeightedEvaluator.COL_TRANSITIONS]);
+		assertEquals(board.getHoles(), (int) f[WeightedEvaluator.HOLES]);
+		assertEquals(board.getBumpiness(), (int) f[WeightedEvaluator.BUMPINESS]);
+		assertEquals(board.getMaxHeight(), (int) f[WeightedEvaluator.MAX_HEIGHT]);
+
+		// a stick that clears two rows lands at 1.5 and erodes 2 * 2 blocks
+		Board b = new Board(4, 8);
+		b.place(pieces[Piece.SQUARE], 0, 0);
+		b.commit();
+		b.place(pieces[Piece.STICK], 2, 0);
+		b.commit();
+		assertEquals(Board.PLACE_ROW_FILLED, b.place(pieces[Piece.STICK], 3, 0));
+		b.clearRows();
+		WeightedEvaluator.classic().features(b, f);
+		assertEquals(1.5, f[WeightedEvaluator.LANDING_HEIGHT], 0);
+		assertEquals(4, (int) f[WeightedEvaluator.ERODED_BLOCKS]);
+		assertEquals(2, b.getLastRowsCleared());
+		assertEquals(2, b.getLastErodedBlocks());
+	}
+
+	public void testCustomWeights() {
+		scramble(board, 12, 12);
+		DefaultBrain plain = new DefaultBrain(null);
+		DefaultBrain classic = new DefaultBrain(null, WeightedEvaluator.classic());
+		for (Piece p : pieces) {
+			assertSameMove(plain.bestMove(board, p, 20, null), classic.bestMove(board, p, 20, null));
+		}
+
+		// landing height depends on the play, so those scores skip the cache
+		double[] weights = new double[WeightedEvaluator.FEATURE_COUNT];
+		weights[WeightedEvaluator.HOLES] = 4;
+		weights[WeightedEvaluator.LANDING_HEIGHT] = 4.5;
+		weights[WeightedEvaluator.ERODED_BLOCKS] = -3.4;
+		weights[WeightedEvaluator.ROW_TRANSITIONS] = 3.2;
+		weights[WeightedEvaluator.COL_TRANSITIONS] = 9.3;
+		weights[WeightedEvaluator.WELLS] = 3.4;
+		WeightedEvaluator tuned = new WeightedEvaluator(weights);
+		assertTrue(tuned.usesPlacement());
+		assertFalse(WeightedEvaluator.classic().usesPlacement());
+		DefaultBrain cached = new DefaultBrain(new TranspositionTable(1 << 10), tuned);
+		DefaultBrain uncached = new DefaultBrain(null, tuned);
+		for (int n = 0; n < 2; n++) {
+			for (Piece p : pieces) {
+				assertSameMove(uncached.bestMove(board, p, 20, null), cached.bestMove(board, p, 20, null));
+			}
+		}
+
+		try {
+			new WeightedEvaluator(new double[3]);
+			fail("too few weights");
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+
+	public void testTunerResume() throws Exception {
+		WeightTuner tuner = new WeightTuner(6, 2, 2, 40, 77);
+		tuner.step();
+		File file = File.createTempFile("tuner", ".properties");
+		try {
+			tuner.save(file);
+			WeightTuner resumed = WeightTuner.load(file);
+			assertEquals(1, resumed.getGeneration());
+			assertEquals(tuner.getBestScore(), resumed.getBestScore(), 0);
+
+			// the next generation comes out the same either way
+			assertEquals(tuner.step(), resumed.step(), 0);
+			assertArrayEquals(tuner.getMean(), resumed.getMean());
+			assertArrayEquals(tuner.getBest().getWeights(), resumed.getBest().getWeights());
+		} finally {
+			file.delete();
+		}
+
+		// the same seed plays the same game
+		Evaluator classic = WeightedEvaluator.classic();
+		assertEquals(WeightTuner.play(classic, 5, 200), WeightTuner.play(classic, 5, 200));
+		assertTrue(WeightTuner.play(classic, 5, 200) > 0);
+	}
+}
@@ -0,0 +1,24 @@
+// Evaluator.java -- scores boards for brains
+
+/**
+ Rates how good a board is, for brains that try plays and keep the best.
+ Lower scores are better, as with DefaultBrain.rateBoard().
+ Brains may call an evaluator from several threads at once, so
+ evaluate() must not change any state.
+*/
+public interface Evaluator {
+    /**
+     Given a board just after a play (and its clearRows()),
+     returns a number rating the position -- larger numbers for worse boards.
+    */
+    public double evaluate(Board board);
+
+    /**
+     Returns true if evaluate() depends on the play that led to the
+     board (see Board.getLastPlaceY()) and not just on the blocks, in
+     which case the score must not be cached by the board hash alone.
+    */
+    public default boolean usesPlacement() {
+        return false;
+    }
+}
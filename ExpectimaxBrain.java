@@ -0,0 +1,226 @@
+// ExpectimaxBrain.java
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ A Brain that plays for the expected score over the pieces still to come.
+ JTetris draws every piece uniformly from Piece.getPieces(), so after each
+ of our plays there is a chance node that averages over all 7 of them,
+ followed by our best reply, and so on for depth plays in all.
+
+ To keep the tree small only the breadth best plays of each piece,
+ by rateBoard(), are searched any deeper -- the rest are pruned.
+ The chance children of the root plays are searched in parallel on a
+ ForkJoinPool, each on its own copy of the board; below that, the search
+ uses Board.mark()/rollbackTo() on that copy.
+
+ At depth 1 there are no chance nodes and this is exactly DefaultBrain,
+ so it just asks DefaultBrain.
+
+ As an AnytimeBrain it searches depth 1, 2, ... up to depth, and keeps
+ the answer of the deepest search that beat the deadline.
+*/
+public class ExpectimaxBrain implements AnytimeBrain {
+    // score of a chance outcome where the piece cannot be played at all
+    public static final double LOSS = 1e9;
+    public static final int DEFAULT_BREADTH = 8;
+
+    private final DefaultBrain evaluator;
+    private final int depth;
+    private final int breadth;
+    private final ForkJoinPool pool;
+
+    public ExpectimaxBrain(int depth) {
+        this(new DefaultBrain(), depth, DEFAULT_BREADTH, ForkJoinPool.commonPool());
+    }
+
+    public ExpectimaxBrain(DefaultBrain evaluator, int depth, int breadth, ForkJoinPool pool) {
+        if (depth < 1 || breadth < 1) {
+            throw new IllegalArgumentException("Need a depth and breadth of at least one, got: " + depth + ", " + breadth);
+        }
+        this.evaluator = evaluator;
+        this.depth = depth;
+        this.breadth = breadth;
+        this.pool = pool;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public Brain.Move bestMove(Board board, Piece piece, int limitHeight, Brain.Move move) {
+        if (depth == 1) return evaluator.bestMove(board, piece, limitHeight, move);
+        return search(board, piece, limitHeight, move, depth, new Search(false, 0));
+    }
+
+    public Brain.Move bestMove(Board board, Piece piece, int limitHeight, Brain.Move move,
+                               long deadline, AnytimeBrain.Report report) {
+        Search search = new Search(true, deadline);
+        Brain.Move found = new Brain.Move();
+        Brain.Move best = null;
+        int reached = 0;
+        boolean timedOut = false;
+
+        for (int d = 1; d <= depth; d++) {
+            if (d > 1 && search.expired()) {
+                timedOut = true;
+                break;
+            }
+            try {
+                if (search(board, piece, limitHeight, found, d, search) == null) break;
+            } catch (Timeout e) {
+                timedOut = true;
+                break;
+            }
+            if (move == null) move = new Brain.Move();
+            move.piece = found.piece;
+            move.x = found.x;
+            move.y = found.y;
+            move.score = found.score;
+            best = move;
+            reached = d;
+        }
+
+        if (report != null) {
+            report.depth = reached;
+            report.nodes = search.nodes.sum();
+            report.timedOut = timedOut;
+        }
+        return best;
+    }
+
+    // The deadline and node count shared by every task of one search
+    private static class Search {
+        final boolean timed;
+        final long deadline;
+        final LongAdder nodes = new LongAdder();
+
+        Search(boolean timed, long deadline) {
+            this.timed = timed;
+            this.deadline = deadline;
+        }
+
+        boolean expired() {
+            return timed && System.nanoTime() - deadline > 0;
+        }
+    }
+
+    // Unwinds a search that ran out of time -- no stack trace, it is not an error
+    private static class Timeout extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        static final Timeout INSTANCE = new Timeout();
+
+        private Timeout() {
+            super(null, null, false, false);
+        }
+    }
+
+    /*
+     A full search of the given depth. Depth 1 has no chance nodes and
+     is never cut short; deeper searches throw Timeout at the deadline.
+     The caller's board is only used for the root plays, which always
+     finish, so it is left as it was found either way, and is not
+     read once this returns.
+    */
+    private Brain.Move search(Board board, Piece piece, int limitHeight, Brain.Move move, int plies, Search search) {
+        board.commit();
+        List<Placements.Play> roots = plays(board, piece, limitHeight, search);
+        if (roots.isEmpty()) return(null);    // could not find a play at all!
+
+        Placements.Play best = roots.get(0);
+        double bestScore = best.score;
+        if (plies > 1) {
+            // one task per (root play, next piece), all running at once.
+            // They copy a snapshot taken here, never the caller's board,
+            // which may be changing again by the time a late task starts.
+            Piece[] pieces = Piece.getPieces();
+            Board snapshot = board.copy();
+            List<ForkJoinTask<Double>> tasks = new ArrayList<ForkJoinTask<Double>>();
+            for (Placements.Play root : roots) {
+                for (Piece next : pieces) {
+                    tasks.add(pool.submit(() -> {
+                        Board own = snapshot.copy();
+                        root.playOn(own);
+                        try {
+                            return value(own, next, plies - 1, limitHeight, search);
+                        } catch (Timeout e) {
+                            return Double.NaN;
+                        }
+                    }));
+                }
+            }
+
+            // ties go to the root play with the better static score
+            best = null;
+            int t = 0;
+            for (Placements.Play root : roots) {
+                double sum = 0;
+                for (int i = 0; i < pieces.length; i++) sum += tasks.get(t++).join();
+                if (Double.isNaN(sum)) {
+                    // the tasks not started yet need not run at all
+                    for (ForkJoinTask<Double> task : tasks) task.cancel(false);
+                    throw Timeout.INSTANCE;
+                }
+                double expected = sum / pieces.length;
+                if (best == null || expected < bestScore) {
+                    best = root;
+                    bestScore = expected;
+                }
+            }
+        }
+
+        if (move == null) move = new Brain.Move();
+        move.piece = best.piece;
+        move.x = best.x;
+        move.y = best.y;
+        move.score = bestScore;
+        return(move);
+    }
+
+    /*
+     Best score we can expect playing piece and then plies-1 more
+     unknown pieces. Leaves the board as it found it, unless it
+     runs out of time.
+    */
+    private double value(Board board, Piece piece, int plies, int limitHeight, Search search) {
+        if (search.expired()) throw Timeout.INSTANCE;
+        List<Placements.Play> options = plays(board, piece, limitHeight, search);
+        if (options.isEmpty()) return LOSS;
+        if (plies == 1) return options.get(0).score;
+
+        double best = Double.MAX_VALUE;
+        for (Placements.Play option : options) {
+            int mark = board.mark();
+            option.playOn(board);
+            best = Math.min(best, chance(board, plies - 1, limitHeight, search));
+            board.rollbackTo(mark);
+        }
+        return best;
+    }
+
+    // average over the next piece
+    private double chance(Board board, int plies, int limitHeight, Search search) {
+        Piece[] pieces = Piece.getPieces();
+        double sum = 0;
+        for (Piece next : pieces) sum += value(board, next, plies, limitHeight, search);
+        return sum / pieces.length;
+    }
+
+    /*
+     The breadth best plays of piece, best first, in the order
+     DefaultBrain tries them when the scores tie.
+    */
+    private List<Placements.Play> plays(Board board, Piece piece, int limitHeight, Search search) {
+        List<Placements.Play> found = new ArrayList<Placements.Play>();
+        Placements.forEach(board, piece, limitHeight, (i, current, x, y, after) ->
+            found.add(new Placements.Play(i, current, x, y, evaluator.rateBoard(after))));
+
+        search.nodes.add(found.size());
+        found.sort((a, b) -> Double.compare(a.score, b.score));
+        return found.size() > breadth ? found.subList(0, breadth) : found;
+    }
+}
@@ -1,10 +1,31 @@
 import javax.swing.*;
 import java.awt.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+/*
+ Brain searches never run on the Swing event thread and never touch
+ the live board. Each search gets a copy of the committed board and
+ runs on a background thread; its answer is handed back to the event
+ thread with invokeLater(), and dropped if another piece has been
+ added since (the generation has moved on).
+ The adversary is the exception: the next piece is needed right away,
+ so the event thread waits for it, but at most ADVERSARY_WAIT_MS for
+ anything beyond its one ply answer, and repeats are cached.
+ While the adversary is on there is no preview, so it picks each
+ piece when it comes into play, for the board it will land on.
+*/
 public class JBrainTetris extends JTetris{
 
-    private DefaultBrain defBrain;
+    // longest the adversary may look ahead before settling for one ply
+    public static final int ADVERSARY_WAIT_MS = 20;
+    public static final int ADVERSARY_PLIES = 2;
+
+    private Brain brain;        // plays, only used on brainThread
+    private Adversary adversaryEngine;  // event thread only
     private Brain.Move currBestMove;
+    private int generation;     // bumped for every new piece, event thread only
+    private final ExecutorService brainThread = daemonThread("brain");
     private JCheckBox checkBrain;
     private JPanel little;
     private JSlider adversary;
@@ -17,41 +38,66 @@ public class JBrainTetris extends JTetris{
      */
     JBrainTetris(int pixels) {
         super(pixels);
-        defBrain = new DefaultBrain();
+        brain = new DefaultBrain();
+        adversaryEngine = new Adversary(ADVERSARY_PLIES);
+    }
+
+    private static ExecutorService daemonThread(String name) {
+        return Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        });
     }
 
     @Override
     public void startGame() {
-        currBestMove = new Brain.Move();
+        generation++;
+        currBestMove = null;
+        updatePreview();
         super.startGame();
     }
 
+    // a preview would have the adversary pick pieces for boards long gone
+    private void updatePreview() {
+        engine.setPreviewSize(adversary.getValue() > 0 ? 0 : PREVIEW_SIZE);
+    }
+
     @Override
-    public void addNewPiece() {
-        super.addNewPiece();
-        board.undo();
-        defBrain.bestMove(board, currentPiece, board.getHeight() - TOP_SPACE, currBestMove);
+    protected void pieceAdded() {
+        super.pieceAdded();
+        final int gen = ++generation;
+        currBestMove = null;
+        if (!engine.isGameOn() || engine.getCurrentPiece() == null) return;
+
+        // snapshot the committed board, without the falling piece
+        final Board snapshot = engine.copyBoard();
+        final Piece piece = engine.getCurrentPiece();
+        final Piece[] upcoming = getPreview();
+        final int limit = engine.getLimitHeight();
+        brainThread.execute(() -> {
+            Brain.Move move = brain.bestMove(snapshot, piece, upcoming, limit, new Brain.Move());
+            SwingUtilities.invokeLater(() -> {
+                // stale if a new piece came along while we were thinking
+                if (gen == generation && engine.isGameOn()) currBestMove = move;
+            });
+        });
     }
 
     @Override
     public Piece pickNextPiece() {
-        int badness = random.nextInt(100);
+        int badness = engine.getRandom().nextInt(100);
         if(adversary.getValue() > badness){
-            Piece bad = null;
-            double score = Double.MIN_VALUE;
-            for(Piece p : pieces){
-                defBrain.bestMove(board, p, board.getHeight() - TOP_SPACE, currBestMove);
-                if(score < currBestMove.score){
-                    score = currBestMove.score;
-                    bad = p;
-                }
+            // the committed board, read by the adversary's pool while we wait
+            long deadline = System.nanoTime() + ADVERSARY_WAIT_MS * 1_000_000L;
+            Piece bad = adversaryEngine.worstPiece(engine.getBoard(), engine.getLimitHeight(), deadline);
+            if(bad != null){
+                oke.setText("*ok*");
+                return bad;
             }
-            oke.setText("*ok*");
-            return bad;
-        }else{
-            oke.setText("ok");
-            return super.pickNextPiece();
         }
+        oke.setText("ok");
+        return super.pickNextPiece();
     }
 
     @Override
@@ -63,11 +109,11 @@ public class JBrainTetris extends JTetris{
     }
 
     private void makeBrainActions() {
-        if(!currentPiece.equals(currBestMove.piece)) { super.tick(ROTATE); }
+        if(!engine.getCurrentPiece().equals(currBestMove.piece)) { super.tick(ROTATE); }
 
-        if (currBestMove.x < currentX) {
+        if (currBestMove.x < engine.getCurrentX()) {
             super.tick(LEFT);
-        } else if (currBestMove.x > currentX) {
+        } else if (currBestMove.x > engine.getCurrentX()) {
             super.tick(RIGHT);
         } /*else {
             super.tick(DROP);
@@ -91,6 +137,7 @@ public class JBrainTetris extends JTetris{
 
         adversary = new JSlider(0, 100, 0);
         adversary.setPreferredSize(new Dimension(100, 15));
+        adversary.addChangeListener(e -> updatePreview());
         little.add(adversary);
 
         oke = new JLabel("ok");
@@ -12,9 +12,9 @@ import java.awt.Toolkit;
 /**
  CS108 Tetris Game.
  JTetris presents a tetris game in a window.
- It handles the GUI and the animation.
- The Piece and Board classes handle the
- lower-level computations.
+ It handles the GUI and the animation; the rules of the
+ game are in the TetrisEngine it shows, and the Piece
+ and Board classes handle the lower-level computations.
  This code is provided in finished, working form for the students.
  
  Use Keys j-k-l to move, n to drop (or 4-5-6 0)
@@ -25,14 +25,10 @@ import java.awt.Toolkit;
 
 /*
  Implementation notes:
- -The "currentPiece" points to a piece that is
- currently falling, or is null when there is no piece.
- -tick() moves the current piece
+ -The engine plays the game; JTetris listens to it
+ and repaints whatever it says has changed.
  -a timer object calls tick(DOWN) periodically
  -keystrokes call tick() with LEFT, RIGHT, etc.
- -Board.undo() is used to remove the piece from its
- old position and then Board.place() is used to install
- the piece in its new position.
 */
 
 public class JTetris extends JComponent {
@@ -43,7 +39,7 @@ public class JTetris extends JComponent {
 	// Extra blocks at the top for pieces to start.
 	// If a piece is sticking up into this area
 	// when it has landed -- game over!
-	public static final int TOP_SPACE = 4;
+	public static final int TOP_SPACE = TetrisEngine.TOP_SPACE;
 	
 	// When this is true, plays a fixed sequence of 100 pieces
 	protected boolean testMode = false;
@@ -53,36 +49,19 @@ public class JTetris extends JComponent {
 	// (default false, so debugging is easier)
 	protected boolean DRAW_OPTIMIZE = false;
 	
-	// Board data structures
-	protected Board board;
+	// The game itself
+	protected TetrisEngine engine;
 	protected Piece[] pieces;
 	
+	// Upcoming pieces, next first -- refilled by pickNextPiece()
+	public static final int PREVIEW_SIZE = TetrisEngine.PREVIEW_SIZE;
 	
-	// The current piece in play or null
-	protected Piece currentPiece;
-	protected int currentX;
-	protected int currentY;
-	protected boolean moved;	// did the player move the piece
-	
-	
-	// The piece we're thinking about playing
-	// -- set by computeNewPosition
-	// (storing this in ivars is slightly questionable style)
-	protected Piece newPiece;
-	protected int newX;
-	protected int newY;
-	
-	// State of the game
-	protected boolean gameOn;	// true if we are playing
-	protected int count;		 // how many pieces played so far
 	protected long startTime;	// used to measure elapsed time
-	protected Random random;	 // the random generator for new pieces
 	
 	
 	// Controls
 	protected JLabel countLabel;
 	protected JLabel scoreLabel;
-	protected int score;
 	protected JLabel timeLabel;
 	protected JButton startButton;
 	protected JButton stopButton;
@@ -103,10 +82,36 @@ public class JTetris extends JComponent {
 		// a 1 pixel border around the whole thing.
 		setPreferredSize(new Dimension((WIDTH * pixels)+2,
 				(HEIGHT+TOP_SPACE)*pixels+2));
-		gameOn = false;
-		
 		pieces = Piece.getPieces();
-		board = new Board(WIDTH, HEIGHT + TOP_SPACE);
+		engine = new TetrisEngine(WIDTH, HEIGHT);
+		engine.setPieceSource(e -> pickNextPiece());
+		engine.setListener(new TetrisEngine.Listener() {
+			public void pieceMoved(Piece oldPiece, int oldX, int oldY) {
+				// repaint the rect where it used to be, and where it is now
+				if (oldPiece != null) repaintPiece(oldPiece, oldX, oldY);
+				repaintPiece(engine.getCurrentPiece(), engine.getCurrentX(), engine.getCurrentY());
+			}
+			
+			public void rowsFilled() {
+				// draw the whole board so the green row shows up
+				repaint();
+			}
+			
+			public void rowsCleared(int cleared) {
+				// clearing 4 gets you a beep!
+				if (cleared == 4) Toolkit.getDefaultToolkit().beep();
+				updateCounters();
+				repaint();	// repaint to show the result of the row clearing
+			}
+			
+			public void pieceAdded() {
+				JTetris.this.pieceAdded();
+			}
+			
+			public void gameOver() {
+				JTetris.this.gameOver();
+			}
+		});
 
 
 		/*
@@ -204,28 +209,21 @@ public class JTetris extends JComponent {
 	 so the game is happening.
 	*/
 	public void startGame() {
-		// cheap way to reset the board state
-		board = new Board(WIDTH, HEIGHT + TOP_SPACE);
-		
-		// draw the new board state once
-		repaint();
-		
-		count = 0;
-		score = 0;
-		updateCounters();
-		gameOn = true;
-		
 		// Set mode based on checkbox at start of game
 		testMode = testButton.isSelected();
 		
-		if (testMode) random = new Random(0);	// same seq every time
-		else random = new Random(); // diff seq each game
-		
-		enableButtons();
+		engine.setPieceLimit(testMode ? TEST_LIMIT : 0);
+		startTime = System.currentTimeMillis();
 		timeLabel.setText(" ");
-		addNewPiece();
 		timer.start();
-		startTime = System.currentTimeMillis();
+		// same seq every test, the one Test mode has always had
+		engine.setGenerators(testMode ? seed -> PieceGenerator.classic(0) : PieceGenerator.UNIFORM);
+		engine.startGame(testMode ? 0 : new Random().nextLong());
+		
+		// draw the new board state once
+		repaint();
+		updateCounters();
+		enableButtons();
 	}
 	
 	
@@ -234,15 +232,21 @@ public class JTetris extends JComponent {
 	 based on the gameOn state.
 	*/
 	private void enableButtons() {
-		startButton.setEnabled(!gameOn);
-		stopButton.setEnabled(gameOn);
+		startButton.setEnabled(!engine.isGameOn());
+		stopButton.setEnabled(engine.isGameOn());
 	}
 	
 	/**
 	 Stops the game.
 	*/
 	public void stopGame() {
-		gameOn = false;
+		engine.stopGame();
+	}
+	
+	/**
+	 Called by the engine when the game ends.
+	*/
+	protected void gameOver() {
 		enableButtons();
 		timer.stop();
 		
@@ -250,85 +254,29 @@ public class JTetris extends JComponent {
 		timeLabel.setText(Double.toString(delta/100.0) + " seconds");
 
 	}
-	
-	
-	/**
-	 Given a piece, tries to install that piece
-	 into the board and set it to be the current piece.
-	 Does the necessary repaints.
-	 If the placement is not possible, then the placement
-	 is undone, and the board is not changed. The board
-	 should be in the committed state when this is called.
-	 Returns the same error code as Board.place().
-	*/
-	public int setCurrent(Piece piece, int x, int y) {
-		int result = board.place(piece, x, y);
-		
-		if (result <= Board.PLACE_ROW_FILLED) { // SUCESS
-			// repaint the rect where it used to be
-			if (currentPiece != null) repaintPiece(currentPiece, currentX, currentY);
-			currentPiece = piece;
-			currentX = x;
-			currentY = y;
-			// repaint the rect where it is now
-			repaintPiece(currentPiece, currentX, currentY);
-		}
-		else {
-			board.undo();
-		}
-		
-		return(result);
-	}
 
 
 	/**
-	 Selects the next piece to use using the random generator
-	 set in startGame().
+	 Selects the next piece to use using the engine's
+	 piece generator, seeded in startGame().
 	*/
 	public Piece pickNextPiece() {
-		int pieceNum;
-		
-		pieceNum = (int) (pieces.length * random.nextDouble());
-		
-		Piece piece	 = pieces[pieceNum];
-		
-		return(piece);
+		return TetrisEngine.randomPiece(engine);
 	}
 	
-			
+	
 	/**
-	 Tries to add a new random piece at the top of the board.
-	 Ends the game if it's not possible.
+	 Returns the upcoming pieces, next first.
 	*/
-	public void addNewPiece() {
-		count++;
-		score++;
-		
-		if (testMode && count == TEST_LIMIT+1) {
-			 stopGame();
-			 return;
-		}
-
-		// commit things the way they are
-		board.commit();
-		currentPiece = null;
-
-		Piece piece = pickNextPiece();
-		
-		// Center it up at the top
-		int px = (board.getWidth() - piece.getWidth())/2;
-		int py = board.getHeight() - piece.getHeight();
-		
-		// add the new piece to be in play
-		int result = setCurrent(piece, px, py);
-		
-		// This probably never happens, since
-		// the blocks at the top allow space
-		// for new pieces to at least be added.
-		if (result>Board.PLACE_ROW_FILLED) {
-			stopGame();
-		}
-
+	public Piece[] getPreview() {
+		return engine.getPreview();
+	}
+	
+	
+	/**
+	 Called by the engine once a new piece is in play.
+	*/
+	protected void pieceAdded() {
 		updateCounters();
 	}
 	
@@ -336,150 +284,27 @@ public class JTetris extends JComponent {
 	 Updates the count/score labels with the latest values.
 	 */
 	private void updateCounters() {
-		countLabel.setText("Pieces " + count);
-		scoreLabel.setText("Score " + score);
+		countLabel.setText("Pieces " + engine.getCount());
+		scoreLabel.setText("Score " + engine.getScore());
 	}
 	
 	
-	/**
-	 Figures a new position for the current piece
-	 based on the given verb (LEFT, RIGHT, ...).
-	 The board should be in the committed state --
-	 i.e. the piece should not be in the board at the moment.
-	 This is necessary so dropHeight() may be called without
-	 the piece "hitting itself" on the way down.
-
-	 Sets the ivars newX, newY, and newPiece to hold
-	 what it thinks the new piece position should be.
-	 (Storing an intermediate result like that in
-	 ivars is a little tacky.)
-	*/
-	public void computeNewPosition(int verb) {
-		// As a starting point, the new position is the same as the old
-		newPiece = currentPiece;
-		newX = currentX;
-		newY = currentY;
-		
-		// Make changes based on the verb
-		switch (verb) {
-			case LEFT: newX--; break;
-			
-			case RIGHT: newX++; break;
-			
-			case ROTATE:
-				newPiece = newPiece.fastRotation();
-				
-				// tricky: make the piece appear to rotate about its center
-				// can't just leave it at the same lower-left origin as the
-				// previous piece.
-				newX = newX + (currentPiece.getWidth() - newPiece.getWidth())/2;
-				newY = newY + (currentPiece.getHeight() - newPiece.getHeight())/2;
-				break;
-				
-			case DOWN: newY--; break;
-			
-			case DROP:
-			 newY = board.dropHeight(newPiece, newX);
-			 
-			 // trick: avoid the case where the drop would cause
-			 // the piece to appear to move up
-			 if (newY > currentY) {
-				 newY = currentY;
-			 }
-			 break;
-			 
-			default:
-				 throw new RuntimeException("Bad verb");
-		}
-	
-	}
-
-
-
-		
-	public static final int ROTATE = 0;
-	public static final int LEFT = 1;
-	public static final int RIGHT = 2;
-	public static final int DROP = 3;
-	public static final int DOWN = 4;
+	public static final int ROTATE = TetrisEngine.ROTATE;
+	public static final int LEFT = TetrisEngine.LEFT;
+	public static final int RIGHT = TetrisEngine.RIGHT;
+	public static final int DROP = TetrisEngine.DROP;
+	public static final int DOWN = TetrisEngine.DOWN;
 	/**
 	 Called to change the position of the current piece.
 	 Each key press calls this once with the verbs
 	 LEFT RIGHT ROTATE DROP for the user moves,
 	 and the timer calls it with the verb DOWN to move
-	 the piece down one square.
-
-	 Before this is called, the piece is at some location in the board.
-	 This advances the piece to be at its next location.
+	 the piece down one square. The engine does the rest.
 	 
 	 Overriden by the brain when it plays.
 	*/
 	public void tick(int verb) {
-		if (!gameOn) return;
-		
-		if (currentPiece != null) {
-			board.undo();	// remove the piece from its old position
-		}
-		
-		// Sets the newXXX ivars
-		computeNewPosition(verb);
-		
-		// try out the new position (rolls back if it doesn't work)
-		int result = setCurrent(newPiece, newX, newY);
-		
-		// if row clearing is going to happen, draw the
-		// whole board so the green row shows up
-		if (result ==  Board.PLACE_ROW_FILLED) {
-			repaint();
-		}
-		
-
-		boolean failed = (result >= Board.PLACE_OUT_BOUNDS);
-		
-		// if it didn't work, put it back the way it was
-		if (failed) {
-			if (currentPiece != null) board.place(currentPiece, currentX, currentY);
-			repaintPiece(currentPiece, currentX, currentY);
-		}
-		
-		/*
-		 How to detect when a piece has landed:
-		 if this move hits something on its DOWN verb,
-		 and the previous verb was also DOWN (i.e. the player was not
-		 still moving it),	then the previous position must be the correct
-		 "landed" position, so we're done with the falling of this piece.
-		*/
-		if (failed && verb==DOWN && !moved) {	// it's landed
-		
-			int cleared = board.clearRows();
-			if (cleared > 0) {
-				// score goes up by 5, 10, 20, 40 for row clearing
-				// clearing 4 gets you a beep!
-				switch (cleared) {
-					case 1: score += 5;	 break;
-					case 2: score += 10;  break;
-					case 3: score += 20;  break;
-					case 4: score += 40; Toolkit.getDefaultToolkit().beep(); break;
-					default: score += 50;  // could happen with non-standard pieces
-				}
-				updateCounters();
-				repaint();	// repaint to show the result of the row clearing
-			}
-			
-			
-			// if the board is too tall, we've lost
-			if (board.getMaxHeight() > board.getHeight() - TOP_SPACE) {
-				stopGame();
-			}
-			// Otherwise add a new piece and keep playing
-			else {
-				addNewPiece();
-			}
-		}
-		
-		// Note if the player made a successful non-DOWN move --
-		// used to detect if the piece has landed on the next tick()
-		moved = (!failed && verb!=DOWN);
+		engine.tick(verb);
 	}
 
 
@@ -520,12 +345,12 @@ public class JTetris extends JComponent {
 	
 	// width in pixels of a block
 	private final float dX() {
-		return( ((float)(getWidth()-2)) / board.getWidth() );
+		return( ((float)(getWidth()-2)) / engine.getBoard().getWidth() );
 	}
 
 	// height in pixels of a block
 	private final float dY() {
-		return( ((float)(getHeight()-2)) / board.getHeight() );
+		return( ((float)(getHeight()-2)) / engine.getBoard().getHeight() );
 	}
 	
 	// the x pixel coord of the left side of a block
@@ -546,6 +371,7 @@ public class JTetris extends JComponent {
 	 Draws rows that are filled all the way across in green.
 	*/
 	public void paintComponent(Graphics g) {
+		final Board board = engine.getBoard();
 		
 		// Draw a rect around the whole thing
 		g.drawRect(0, 0, getWidth()-1, getHeight()-1);
@@ -0,0 +1,66 @@
+// KernelBenchmark.java
+
+import java.util.Random;
+
+/**
+ Times the BoardKernel scans on random packed boards, 10 and 64 wide.
+ To include the SIMD kernel, build vector/VectorBoardKernel.java too
+ and run with --add-modules jdk.incubator.vector:
+ <pre>
+ javac --add-modules jdk.incubator.vector -cp . -d . vector/VectorBoardKernel.java
+ java --add-modules jdk.incubator.vector KernelBenchmark [rounds]
+ </pre>
+*/
+public class KernelBenchmark {
+    private static final int BOARDS = 1024;
+
+    public static void main(String[] args) {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        BoardKernel[] kernels = { BoardKernel.scalar(), BoardKernel.getDefault() };
+        if (kernels[1] == kernels[0]) {
+            System.out.println("No vector kernel -- build vector/VectorBoardKernel.java and run with --add-modules jdk.incubator.vector");
+            kernels = new BoardKernel[] { kernels[0] };
+        }
+        int[][] sizes = { { 10, 20 }, { 64, 64 } };
+        for (int[] size : sizes) {
+            long[][] boards = randomBoards(size[0], size[1], new Random(size[0]));
+            double scalarNs = 0;
+            for (BoardKernel kernel : kernels) {
+                time(kernel, boards, size[0], rounds / 4);    // warm up
+                double ns = time(kernel, boards, size[0], rounds);
+                if (kernel == kernels[0]) scalarNs = ns;
+                System.out.printf("%-10s %2dx%-2d %8.1f ns/board  %5.2fx%n",
+                                  kernel.getName(), size[0], size[1], ns, scalarNs / ns);
+            }
+        }
+    }
+
+    // boards half full at the bottom, thinning out towards the top
+    private static long[][] randomBoards(int width, int height, Random rand) {
+        long full = width == Long.SIZE ? -1L : (1L << width) - 1;
+        long[][] boards = new long[BOARDS][height];
+        for (long[] rows : boards) {
+            for (int y = 0; y < height; y++) {
+                long row = rand.nextLong() & full;
+                for (int thin = 0; thin < 4 * y / height; thin++) row &= rand.nextLong();
+                rows[y] = row == full ? row & ~1L : row;
+            }
+        }
+        return boards;
+    }
+
+    private static double time(BoardKernel kernel, long[][] boards, int width, int rounds) {
+        int[] heights = new int[width];
+        int[] filled = new int[width];
+        long sink = 0;
+        long start = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            for (long[] rows : boards) {
+                sink += kernel.scan(rows, rows.length, width, heights, filled) + heights[r % width];
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        if (sink == 42) System.out.println();    // keep the scans alive
+        return (double) elapsed / rounds / boards.length;
+    }
+}
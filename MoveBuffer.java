@@ -0,0 +1,99 @@
+// MoveBuffer.java
+
+import java.util.Arrays;
+
+/**
+ The answers of a batch of bestMove() calls, see Brain.bestMoves().
+ Kept as parallel arrays rather than an array of Move objects, so a
+ batch of thousands of boards is a handful of allocations and the
+ scores sit next to each other in memory.
+ Entry i is the best play for the i-th board of the batch; its piece
+ is null if that board had no play at all.
+*/
+public class MoveBuffer {
+    private int size;
+    private int[] x;
+    private int[] y;
+    private Piece[] piece;
+    private double[] score;
+
+    public MoveBuffer(int capacity) {
+        x = new int[capacity];
+        y = new int[capacity];
+        piece = new Piece[capacity];
+        score = new double[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     Sets the number of entries, growing the arrays if needed.
+     Every entry starts out with no play.
+    */
+    public void resize(int newSize) {
+        if (newSize > piece.length) {
+            int capacity = Math.max(newSize, 2 * piece.length);
+            x = new int[capacity];
+            y = new int[capacity];
+            piece = new Piece[capacity];
+            score = new double[capacity];
+        } else {
+            Arrays.fill(piece, 0, size, null);
+        }
+        size = newSize;
+    }
+
+    public boolean hasMove(int i) {
+        return piece[i] != null;
+    }
+
+    public int getX(int i) {
+        return x[i];
+    }
+
+    public int getY(int i) {
+        return y[i];
+    }
+
+    public Piece getPiece(int i) {
+        return piece[i];
+    }
+
+    public double getScore(int i) {
+        return score[i];
+    }
+
+    /**
+     Copies entry i into move (allocated if null) and returns it,
+     or returns null if entry i has no play.
+    */
+    public Brain.Move get(int i, Brain.Move move) {
+        if (piece[i] == null) return null;
+        if (move == null) move = new Brain.Move();
+        move.x = x[i];
+        move.y = y[i];
+        move.piece = piece[i];
+        move.score = score[i];
+        return move;
+    }
+
+    /**
+     Sets entry i, to no play if move is null.
+    */
+    public void set(int i, Brain.Move move) {
+        if (move == null) {
+            piece[i] = null;
+            return;
+        }
+        set(i, move.x, move.y, move.piece, move.score);
+    }
+
+    public void set(int i, int x, int y, Piece piece, double score) {
+        this.x[i] = x;
+        this.y[i] = y;
+        this.piece[i] = piece;
+        this.score[i] = score;
+    }
+}
@@ -0,0 +1,169 @@
+// ParallelBrain.java
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ A Brain that tries the candidate plays of a piece in parallel.
+ Every (rotation, x) pair is numbered in the order DefaultBrain tries
+ them, rotation by rotation and left to right. The numbers are split
+ into chunks on a ForkJoinPool, and each chunk plays its candidates
+ on its own copy of the board (see Placements).
+ Ties go to the lowest numbered candidate, just like the strict
+ less-than in DefaultBrain, so both brains return the same Move.
+
+ A batch of boards (see bestMoves()) is split by board instead: each
+ task plays a few whole boards, one after another, in place, filling
+ one set of DefaultBrain.Candidates arrays per board and scoring them
+ with DefaultBrain.rateAll().
+
+ Boards are scored with the rateBoard() of the given DefaultBrain,
+ which is called from several threads at once and so must not
+ depend on mutable state.
+*/
+public class ParallelBrain implements Brain {
+    // candidates per leaf task -- each leaf pays for one board copy
+    public static final int CHUNK = 8;
+    // boards per leaf task of a batch
+    public static final int BATCH_CHUNK = 4;
+
+    private final DefaultBrain evaluator;
+    private final ForkJoinPool pool;
+
+    /**
+     Creates a brain that scores like DefaultBrain on the common pool.
+    */
+    public ParallelBrain() {
+        this(new DefaultBrain(null), ForkJoinPool.commonPool());
+    }
+
+    public ParallelBrain(DefaultBrain evaluator, ForkJoinPool pool) {
+        this.evaluator = evaluator;
+        this.pool = pool;
+    }
+
+    public Brain.Move bestMove(Board board, Piece piece, int limitHeight, Brain.Move move) {
+        board.commit();
+
+        // the candidates are numbered 0 to count, as Placements numbers them
+        int count = 0;
+        Piece current = piece;
+        do {
+            count += Math.max(0, board.getWidth() - current.getWidth() + 1);
+            current = current.fastRotation();
+        } while (current != piece);
+
+        Placements.Play best = pool.invoke(new Search(board, piece, limitHeight, 0, count));
+        if (best == null) return(null);    // could not find a play at all!
+
+        if (move == null) move = new Brain.Move();
+        move.piece = best.piece;
+        move.x = best.x;
+        move.y = best.y;
+        move.score = best.score;
+        return(move);
+    }
+
+    /**
+     Spreads the boards of the batch across the pool, BATCH_CHUNK boards
+     to a task. Gives the same answers as calling bestMove() on each.
+    */
+    @Override
+    public MoveBuffer bestMoves(Board[] boards, Piece[] pieces, int limitHeight, MoveBuffer out) {
+        if (boards.length != pieces.length) {
+            throw new IllegalArgumentException("Got " + boards.length + " boards but " + pieces.length + " pieces");
+        }
+        if (out == null) out = new MoveBuffer(boards.length);
+        out.resize(boards.length);
+        pool.invoke(new Batch(boards, pieces, limitHeight, out, 0, boards.length));
+        return out;
+    }
+
+    // the best candidate of a range, null if none was playable
+    private class Search extends RecursiveTask<Placements.Play> {
+        private static final long serialVersionUID = 1L;
+
+        private final Board board;
+        private final Piece piece;
+        private final int limitHeight;
+        private final int from, to;
+
+        Search(Board board, Piece piece, int limitHeight, int from, int to) {
+            this.board = board;
+            this.piece = piece;
+            this.limitHeight = limitHeight;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected Placements.Play compute() {
+            if (to - from <= CHUNK) return searchRange();
+
+            int mid = (from + to) >>> 1;
+            Search low = new Search(board, piece, limitHeight, from, mid);
+            Search high = new Search(board, piece, limitHeight, mid, to);
+            low.fork();
+            Placements.Play h = high.compute();
+            Placements.Play l = low.join();
+            // ties go to the lower range
+            if (l == null) return h;
+            if (h == null || l.score <= h.score) return l;
+            return h;
+        }
+
+        private Placements.Play searchRange() {
+            Board own = board.copy();
+            Placements.Play[] best = { null };
+            Placements.forEach(own, piece, limitHeight, from, to, (i, current, x, y, after) -> {
+                double score = evaluator.rateBoard(after);
+                if (score < (best[0] == null ? 1e20 : best[0].score)) {
+                    best[0] = new Placements.Play(i, current, x, y, score);
+                }
+            });
+            return best[0];
+        }
+    }
+
+    private class Batch extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Board[] boards;
+        private final Piece[] pieces;
+        private final int limitHeight;
+        private final MoveBuffer out;
+        private final int from, to;
+
+        Batch(Board[] boards, Piece[] pieces, int limitHeight, MoveBuffer out, int from, int to) {
+            this.boards = boards;
+            this.pieces = pieces;
+            this.limitHeight = limitHeight;
+            this.out = out;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            if (to - from <= BATCH_CHUNK) {
+                DefaultBrain.Candidates candidates = new DefaultBrain.Candidates();
+                for (int i = from; i < to; i++) play(i, candidates);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new Batch(boards, pieces, limitHeight, out, from, mid),
+                      new Batch(boards, pieces, limitHeight, out, mid, to));
+        }
+
+        // DefaultBrain's candidate arrays, scored in one pass, straight into the buffer
+        private void play(int i, DefaultBrain.Candidates candidates) {
+            Board board = boards[i];
+            board.commit();
+            evaluator.generate(board, pieces[i], limitHeight, candidates);
+            evaluator.rateAll(board, candidates);
+            int best = candidates.best();
+            if (best >= 0) {
+                out.set(i, candidates.getX(best), candidates.getY(best), candidates.getPiece(best), candidates.getScore(best));
+            }
+        }
+    }
+}
@@ -24,6 +24,8 @@ public class Piece {
 	// the algorithms to be done.
 	private TPoint[] body;
 	private int[] skirt;
+	private long[] rowMasks;
+	private long shapeKey;
 	private int width;
 	private int height;
 	private Piece next; // "next" rotation
@@ -39,23 +41,25 @@ public class Piece {
 		for (int i = 0; i < points.length; i++) {
 			body[i] = new TPoint(points[i]);
 		}
-		Map<Integer, Integer> skirtMap = new HashMap<>();
 		int maxH = -1, maxW = -1;
-
 		for(TPoint pt : body){
-			if(skirtMap.containsKey(pt.x)){
-				if(pt.y < skirtMap.get(pt.x)){ skirtMap.replace(pt.x, pt.y); }
-			}else{
-				skirtMap.put(pt.x, pt.y);
-			}
 			maxH = Math.max(maxH, pt.y);
 			maxW = Math.max(maxW, pt.x);
 		}
 		height = ++maxH;
 		width = ++maxW;
 		skirt = new int[maxW];
-		for (int i = 0; i < maxW; i++) {
-			skirt[i] = skirtMap.get(i);
+		Arrays.fill(skirt, Integer.MAX_VALUE);
+		for(TPoint pt : body){
+			skirt[pt.x] = Math.min(skirt[pt.x], pt.y);
+		}
+		rowMasks = new long[maxH];
+		for(TPoint pt : body){
+			rowMasks[pt.y] |= 1L << pt.x;
+		}
+		shapeKey = height;
+		for(long mask : rowMasks){
+			shapeKey = (shapeKey ^ mask) * 0x100000001B3L;
 		}
 	}
 	
@@ -103,6 +107,25 @@ public class Piece {
 		return skirt;
 	}
 
+	/**
+	 Returns a pointer to the piece's row masks. For each y value
+	 across the piece, bit x of the mask is set if (x, y) is in the body,
+	 so shifting a mask left by the piece's x gives its board row bits.
+	 The caller should not modify this array.
+	*/
+	public long[] getRowMasks() {
+		return rowMasks;
+	}
+
+	/**
+	 Returns a 64-bit key for the shape of this rotation.
+	 Pieces that are equals() have the same key, so it can stand
+	 for the piece in hash keys such as TranspositionTable.key().
+	*/
+	public long getShapeKey() {
+		return shapeKey;
+	}
+
 	
 	/**
 	 Returns a new piece that is 90 degrees counter-clockwise
@@ -183,6 +206,7 @@ public class Piece {
 	public static final int S2	  = 4;
 	public static final int SQUARE	= 5;
 	public static final int PYRAMID = 6;
+	public static final int PIECE_COUNT = 7;
 	
 	/**
 	 Returns an array containing the first rotation of
@@ -0,0 +1,153 @@
+// PieceGenerator.java
+
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.function.LongFunction;
+
+/**
+ A reproducible stream of piece numbers (indexes into Piece.getPieces()).
+ Each generator owns a SplittableRandom, so games never share or contend
+ on one; split() makes an independent child stream for another game or
+ thread, and the same seed always gives the same pieces.
+ Pieces are made ahead of time, a buffer of bytes at a go, so next()
+ is usually just an array read.
+
+ uniform() draws every piece independently, like the original JTetris;
+ bag() deals each of the 7 pieces once per bag of 7, in a shuffled order.
+ classic() is the original JTetris sequence itself, from java.util.Random,
+ for the seeds (like Test mode's 0) whose games should not change.
+ A generator is meant to be used by one thread at a time.
+*/
+public abstract class PieceGenerator {
+    // pieces made per refill -- a whole number of bags
+    private static final int BUFFER = 7 * 16;
+
+    /** Makes uniform generators from seeds. */
+    public static final LongFunction<PieceGenerator> UNIFORM = PieceGenerator::uniform;
+    /** Makes 7-bag generators from seeds. */
+    public static final LongFunction<PieceGenerator> BAG = PieceGenerator::bag;
+
+    protected final SplittableRandom random;
+    private final byte[] buffer = new byte[BUFFER];
+    private int next = BUFFER;
+
+    protected PieceGenerator(SplittableRandom random) {
+        this.random = random;
+    }
+
+    public static PieceGenerator uniform(long seed) {
+        return new Uniform(new SplittableRandom(seed));
+    }
+
+    public static PieceGenerator bag(long seed) {
+        return new Bag(new SplittableRandom(seed));
+    }
+
+    /**
+     The pieces JTetris drew from new Random(seed) before there were
+     generators -- the same seed gives the same pieces it always did.
+    */
+    public static PieceGenerator classic(long seed) {
+        return new Classic(seed);
+    }
+
+    /**
+     Returns the next piece number.
+    */
+    public int next() {
+        if (next == BUFFER) {
+            generate(buffer, 0, BUFFER);
+            next = 0;
+        }
+        return buffer[next++];
+    }
+
+    /**
+     Returns the next piece, out of the given root pieces.
+    */
+    public Piece nextPiece(Piece[] pieces) {
+        return pieces[next()];
+    }
+
+    /**
+     Fills out[from, from + count) with the next piece numbers --
+     the same ones next() would have returned.
+    */
+    public void fill(byte[] out, int from, int count) {
+        for (int i = 0; i < count; i++) out[from + i] = (byte) next();
+    }
+
+    /**
+     Returns a new generator with its own independent stream, and
+     moves this one on. Splitting the same way from the same seed
+     always gives the same streams.
+    */
+    public abstract PieceGenerator split();
+
+    /**
+     Writes count fresh piece numbers to out, starting at from.
+    */
+    protected abstract void generate(byte[] out, int from, int count);
+
+    private static class Uniform extends PieceGenerator {
+        Uniform(SplittableRandom random) {
+            super(random);
+        }
+
+        public PieceGenerator split() {
+            return new Uniform(random.split());
+        }
+
+        protected void generate(byte[] out, int from, int count) {
+            for (int i = from; i < from + count; i++) {
+                out[i] = (byte) random.nextInt(Piece.PIECE_COUNT);
+            }
+        }
+    }
+
+    private static class Classic extends PieceGenerator {
+        private final Random old;
+
+        Classic(long seed) {
+            super(new SplittableRandom(seed));    // only for split()
+            old = new Random(seed);
+        }
+
+        public PieceGenerator split() {
+            return new Classic(random.nextLong());
+        }
+
+        protected void generate(byte[] out, int from, int count) {
+            for (int i = from; i < from + count; i++) {
+                out[i] = (byte) (Piece.PIECE_COUNT * old.nextDouble());
+            }
+        }
+    }
+
+    private static class Bag extends PieceGenerator {
+        private final byte[] bag = new byte[Piece.PIECE_COUNT];
+        private int left;   // pieces still to deal from bag
+
+        Bag(SplittableRandom random) {
+            super(random);
+            for (int i = 0; i < bag.length; i++) bag[i] = (byte) i;
+        }
+
+        public PieceGenerator split() {
+            return new Bag(random.split());
+        }
+
+        protected void generate(byte[] out, int from, int count) {
+            for (int i = from; i < from + count; i++) {
+                if (left == 0) left = bag.length;
+                // Fisher-Yates, one step per piece dealt
+                int pick = random.nextInt(left);
+                byte piece = bag[pick];
+                bag[pick] = bag[left - 1];
+                bag[left - 1] = piece;
+                left--;
+                out[i] = piece;
+            }
+        }
+    }
+}
@@ -220,4 +220,49 @@ public class PieceTest extends TestCase {
 		exc = assertThrows(RuntimeException.class, () -> new Piece("0 1 2 lashuka 2 1 --"));
 		assertTrue(exc.getMessage().contains("Could not parse x,y string:0 1 2 lashuka 2 1 --"));
 	}
+
+	public void testRowMasks(){
+		assertArrayEquals(new long[]{ 0b111, 0b010 }, pyr1.getRowMasks());
+		assertArrayEquals(new long[]{ 0b011, 0b110 }, s.getRowMasks());
+
+		Piece stick = new Piece(Piece.STICK_STR);
+		assertArrayEquals(new long[]{ 1, 1, 1, 1 }, stick.getRowMasks());
+		assertArrayEquals(new long[]{ 0b1111 }, stick.computeNextRotation().getRowMasks());
+	}
+
+	public void testGenerators() {
+		for (PieceGenerator gen : new PieceGenerator[] { PieceGenerator.uniform(3), PieceGenerator.bag(3) }) {
+			int[] counts = new int[Piece.PIECE_COUNT];
+			for (int i = 0; i < 7000; i++) counts[gen.next()]++;
+			for (int c : counts) assertTrue(c > 800 && c < 1200);
+		}
+
+		// the same seed, and the same splits, give the same pieces
+		PieceGenerator a = PieceGenerator.uniform(11), b = PieceGenerator.uniform(11);
+		PieceGenerator aChild = a.split(), bChild = b.split();
+		byte[] fromA = new byte[500], fromB = new byte[500];
+		a.fill(fromA, 0, 500);
+		for (int i = 0; i < 500; i++) fromB[i] = (byte) b.next();
+		assertArrayEquals(fromA, fromB);
+		aChild.fill(fromA, 0, 500);
+		bChild.fill(fromB, 0, 500);
+		assertArrayEquals(fromA, fromB);
+
+		// a bag deals each piece once per 7
+		PieceGenerator bag = PieceGenerator.bag(5);
+		for (int n = 0; n < 100; n++) {
+			boolean[] seen = new boolean[Piece.PIECE_COUNT];
+			for (int i = 0; i < Piece.PIECE_COUNT; i++) {
+				int piece = bag.next();
+				assertFalse(seen[piece]);
+				seen[piece] = true;
+			}
+		}
+		assertTrue(bag.nextPiece(Piece.getPieces()) != null);
+
+		// classic is what JTetris drew from java.util.Random
+		PieceGenerator classic = PieceGenerator.classic(0);
+		Random old = new Random(0);
+		for (int i = 0; i < 500; i++) assertEquals((int) (Piece.PIECE_COUNT * old.nextDouble()), classic.next());
+	}
 }
@@ -0,0 +1,86 @@
+// Placements.java
+
+/**
+ Tries every landing play of a piece on a board, the same plays in the
+ same order as DefaultBrain: rotation by rotation (fastRotation() from
+ the given piece) and left to right, dropped straight down, keeping
+ those that land under limitHeight. Each play is placed, its full rows
+ are cleared, the visitor is shown the board, and the play is undone.
+
+ Plays are numbered by (rotation, x) pair over every x the rotation
+ fits at, whether or not it lands low enough, so a range of numbers
+ can be searched on its own (see ParallelBrain).
+*/
+public final class Placements {
+    /**
+     Sees one play, with the board as it is after it. The board must
+     be left as it was found, and not committed, so the play can be
+     undone -- visitors usually just rate it and note it down.
+    */
+    public interface Visitor {
+        void play(int index, Piece piece, int x, int y, Board board);
+    }
+
+    /**
+     A play and the score of the board after it, as the brains note
+     them down from a Visitor.
+    */
+    public static final class Play {
+        public final int index;
+        public final Piece piece;
+        public final int x, y;
+        public final double score;
+
+        public Play(int index, Piece piece, int x, int y, double score) {
+            this.index = index;
+            this.piece = piece;
+            this.x = x;
+            this.y = y;
+            this.score = score;
+        }
+
+        /**
+         Plays it on the committed board for good: places the piece,
+         clears the full rows and commits.
+        */
+        public void playOn(Board board) {
+            if (board.place(piece, x, y) == Board.PLACE_ROW_FILLED) board.clearRows();
+            board.commit();
+        }
+    }
+
+    private Placements() {
+    }
+
+    /**
+     Shows the visitor every play of piece on the committed board.
+    */
+    public static void forEach(Board board, Piece piece, int limitHeight, Visitor visitor) {
+        forEach(board, piece, limitHeight, 0, Integer.MAX_VALUE, visitor);
+    }
+
+    /**
+     Shows the visitor the plays numbered from (inclusive) to to (exclusive).
+    */
+    public static void forEach(Board board, Piece piece, int limitHeight, int from, int to, Visitor visitor) {
+        int index = 0;
+        Piece current = piece;
+        do {
+            final int yBound = limitHeight - current.getHeight() + 1;
+            final int xBound = board.getWidth() - current.getWidth() + 1;
+            for (int x = Math.max(0, from - index); x < xBound && index + x < to; x++) {
+                int y = board.dropHeight(current, x);
+                if (y < yBound) {
+                    int result = board.place(current, x, y);
+                    if (result <= Board.PLACE_ROW_FILLED) {
+                        if (result == Board.PLACE_ROW_FILLED) board.clearRows();
+                        visitor.play(index + x, current, x, y, board);
+                    }
+                    board.undo();
+                }
+            }
+            index += Math.max(0, xBound);
+            current = current.fastRotation();
+        } while (current != piece && index < to);
+    }
+}
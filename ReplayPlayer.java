@@ -0,0 +1,236 @@
+// ReplayPlayer.java
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+
+/**
+ Plays back a replay written by ReplayWriter on a headless TetrisEngine,
+ as fast as it can be read, and checks that the game ends with the
+ same board, score, lines and piece count as it was recorded with.
+ A replay that does not match throws a RuntimeException saying where.
+ Keyframes met on the way are checked too.
+
+ seek() instead stops at a given piece, starting from the last
+ keyframe before it, so it costs about the same anywhere in a game.
+
+ From the command line:
+ <pre>
+ java ReplayPlayer [-seek PIECE] game.replay ...
+ </pre>
+*/
+public class ReplayPlayer {
+    // the fewest bytes before the first record
+    private static final int HEADER_SIZE = 21;
+
+    private final DataInputStream in;
+    private TetrisEngine engine;
+    private int version;
+    private long records;   // records read, to say where things went wrong
+
+    private ReplayPlayer(InputStream in) {
+        this.in = new DataInputStream(new BufferedInputStream(in, 1 << 16));
+    }
+
+    /**
+     Plays the replay on in and returns the engine as the game left it.
+    */
+    public static TetrisEngine play(InputStream in) throws IOException {
+        return new ReplayPlayer(in).play();
+    }
+
+    /**
+     Plays the replay in the given file up to the moment piece number
+     piece (as getCount() counts them) comes into play, and returns the
+     engine then. Loads the last keyframe at or before the piece if the
+     replay has an index, otherwise plays from the start. A piece the
+     game never got to gives the engine as the game left it.
+     The file is closed again, so the engine is for looking at;
+     seek again to see another piece.
+    */
+    public static TetrisEngine seek(File file, int piece) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            ReplayPlayer player = new ReplayPlayer(Channels.newInputStream(raf.getChannel()));
+            long seed = player.readHeader(raf);
+            long records = raf.getFilePointer();
+            long offset = keyframeBefore(raf, piece);
+            raf.seek(offset > 0 ? offset : records);
+            if (offset > 0) {
+                if (player.in.readUnsignedByte() != ReplayWriter.KEYFRAME) throw player.diverged("index does not point at a keyframe");
+                player.keyframe(true);
+            } else {
+                player.engine.startGame(seed);
+            }
+            return player.playTo(piece);
+        }
+    }
+
+    // the offset of the last keyframe at or before piece, 0 if there is none
+    // or the replay has no index
+    private static long keyframeBefore(RandomAccessFile raf, int piece) throws IOException {
+        if (raf.length() < HEADER_SIZE + 12) return 0;
+        raf.seek(raf.length() - 12);
+        long index = raf.readLong();
+        if (raf.readInt() != ReplayWriter.INDEX_MAGIC || index < HEADER_SIZE || index > raf.length() - 16) return 0;
+
+        byte[] bytes = new byte[(int) (raf.length() - 12 - index)];
+        raf.seek(index);
+        raf.readFully(bytes);
+        DataInputStream entries = new DataInputStream(new ByteArrayInputStream(bytes));
+        long offset = 0;
+        for (int i = entries.readInt(); i > 0; i--) {
+            int count = entries.readInt();
+            long at = entries.readLong();
+            if (count > piece) break;
+            offset = at;
+        }
+        return offset;
+    }
+
+    private TetrisEngine play() throws IOException {
+        long seed = readHeader(in);
+        engine.startGame(seed);
+        return playTo(Integer.MAX_VALUE);
+    }
+
+    // sets up the engine from the header and returns the game's seed
+    private long readHeader(DataInput header) throws IOException {
+        if (header.readInt() != ReplayWriter.MAGIC) throw new IOException("Not a replay");
+        version = header.readUnsignedByte();
+        if (version < 1 || version > ReplayWriter.VERSION) throw new IOException("Unknown replay version: " + version);
+        engine = new TetrisEngine(header.readUnsignedShort(), header.readUnsignedShort());
+        engine.setPieceLimit(header.readInt());
+        engine.setCheckMode(Board.CheckMode.OFF, 1);
+        engine.setPieceSource(e -> readPiece());
+        long seed = header.readLong();
+        if (version >= 3) engine.setPreviewSize(header.readUnsignedByte());
+        return seed;
+    }
+
+    // plays records until piece number piece is in play or the replay ends
+    private TetrisEngine playTo(int piece) throws IOException {
+        while (engine.getCount() < piece) {
+            int b = in.read();
+            if (b < 0) return engine;    // cut off, nothing to check against
+            records++;
+            if (b == ReplayWriter.END) {
+                engine.stopGame();    // unless the rules already have
+                check(in.readLong(), engine.getBoard().getZobrist(), "board");
+                check(in.readInt(), engine.getScore(), "score");
+                check(in.readInt(), engine.getLines(), "lines");
+                check(in.readInt(), engine.getCount(), "count");
+                return engine;
+            }
+            if (b == ReplayWriter.KEYFRAME) {
+                keyframe(false);
+            } else if (b == ReplayWriter.PREVIEW) {
+                engine.setPreviewSize(in.readUnsignedByte());
+            } else if (b <= TetrisEngine.DOWN) {
+                engine.tick(b);
+            } else if ((b & ~3) == ReplayWriter.LAND) {
+                Piece current = engine.getCurrentPiece();
+                int x = in.readUnsignedByte();
+                if (current == null) throw diverged("no piece to land");
+                if (!engine.land(TetrisEngine.rotate(current, b & 3), x)) throw diverged("recorded land at " + x + " does not fit");
+            } else {
+                throw diverged("unexpected record " + b);
+            }
+        }
+        return engine;
+    }
+
+    // reads a keyframe and either resumes the game from it or checks
+    // the game against it
+    private void keyframe(boolean resume) throws IOException {
+        int count = in.readInt();
+        int score = in.readInt();
+        int lines = in.readInt();
+        Piece current = readCode();
+        int x = in.readShort();
+        int y = in.readShort();
+        int previewSize = version >= 3 ? in.readUnsignedByte() : TetrisEngine.PREVIEW_SIZE;
+        Piece[] preview = new Piece[in.readUnsignedByte()];
+        for (int i = 0; i < preview.length; i++) preview[i] = readCode();
+        long hash = in.readLong();
+        long[] rows = new long[in.readUnsignedShort()];
+        int width = engine.getWidth();
+        for (int j = 0; j < rows.length; j++) {
+            for (int i = 0; i < width; i += 8) rows[j] |= (long) in.readUnsignedByte() << i;
+        }
+
+        if (resume) {
+            Board board = Board.fromRows(width, engine.getHeight() + TetrisEngine.TOP_SPACE, rows, rows.length);
+            check(hash, board.getZobrist(), "keyframe board");
+            engine.setPreviewSize(previewSize);
+            engine.resume(board, current, x, y, preview, count, score, lines);
+        } else {
+            check(count, engine.getCount(), "keyframe count");
+            check(score, engine.getScore(), "keyframe score");
+            check(lines, engine.getLines(), "keyframe lines");
+            check(previewSize, engine.getPreviewSize(), "keyframe preview size");
+            if (current != engine.getCurrentPiece()) throw diverged("keyframe piece is not the current one");
+            check(hash, engine.copyBoard().getZobrist(), "keyframe board");
+        }
+    }
+
+    private Piece readCode() throws IOException {
+        int code = in.readUnsignedByte();
+        if (code >>> 2 >= Piece.PIECE_COUNT) throw diverged("no piece " + code);
+        return engine.piece(code);
+    }
+
+    // the piece source during play back -- the next record must be a piece
+    private Piece readPiece() {
+        try {
+            int b = in.readUnsignedByte();
+            records++;
+            if ((b & ~0x1f) != ReplayWriter.PIECE || (b & 0x1f) >>> 2 >= Piece.PIECE_COUNT) {
+                throw diverged("expected a piece, got record " + b);
+            }
+            return engine.piece(b & 0x1f);
+        } catch (EOFException e) {
+            throw diverged("replay ends while picking a piece");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void check(long recorded, long played, String what) {
+        if (recorded != played) throw diverged(what + " is " + played + ", recorded " + recorded);
+    }
+
+    private RuntimeException diverged(String why) {
+        return new RuntimeException("Replay diverged at record " + records + ": " + why);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int seek = -1;
+        for (int i = 0; i < args.length; i++) {
+            if ("-seek".equals(args[i]) && i + 1 < args.length) {
+                seek = Integer.parseInt(args[++i]);
+                continue;
+            }
+            String name = args[i];
+            long start = System.nanoTime();
+            TetrisEngine engine;
+            if (seek >= 0) {
+                engine = seek(new File(name), seek);
+            } else {
+                try (InputStream in = new FileInputStream(name)) {
+                    engine = play(in);
+                }
+            }
+            System.out.printf("%s: %s, %d pieces, %d lines, score %d in %.1f ms%n", name, seek >= 0 ? "at" : "ok",
+                              engine.getCount(), engine.getLines(), engine.getScore(), (System.nanoTime() - start) / 1e6);
+        }
+    }
+}
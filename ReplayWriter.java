@@ -0,0 +1,186 @@
+// ReplayWriter.java
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/**
+ Records one game of a TetrisEngine as a compact binary replay, for
+ ReplayPlayer to play back. Install it with engine.setRecorder() before
+ startGame(). Every action is one byte (two for a brain's land()) into
+ a buffer, so recording costs next to nothing per tick.
+
+ Every keyframe interval pieces the whole game state goes in as a
+ keyframe, and a finished replay ends with an index of where they are,
+ so ReplayPlayer.seek() can jump to any piece by loading the keyframe
+ before it and playing only the records after that.
+
+ The format, all big-endian:
+ <pre>
+ header:   int MAGIC, byte VERSION, short width, short height, int piece limit, long seed,
+           byte preview size
+ records:  0..4                    tick(verb)
+           PIECE | index << 2 | r  the piece source picked a piece
+           LAND | r, byte x        land() rotation r of the current piece at x
+           PREVIEW, byte size      setPreviewSize() during the game
+           KEYFRAME, keyframe      a new piece is in play
+           END, long board hash, int score, int lines, int count -- stopGame()
+ index:    int keyframes, then int count, long offset for each
+ trailer:  long index offset, int INDEX_MAGIC
+ keyframe: int count, int score, int lines, byte current piece, short x, short y,
+           byte preview size, byte queued pieces, byte each of them, long board hash,
+           short rows, then each row's bits in (width + 7) / 8 bytes, low bits first
+ </pre>
+ Pieces are written index << 2 | rotation, as in TetrisEngine.pieceCode().
+ Keyframe boards leave out the current piece; the column heights and
+ row counts are worked out from the rows again when one is loaded.
+ Pieces are recorded as they are picked, so games with any piece source
+ (an adversary, say) play back the same. A replay cut off before END
+ still plays back, just without the final check, and seeks by playing
+ from the start.
+*/
+public class ReplayWriter implements TetrisEngine.Recorder, Closeable {
+    public static final int MAGIC = 0x54524550;  // "TREP"
+    // 1 had no keyframes or index, 2 no preview sizes
+    public static final int VERSION = 3;
+    public static final int INDEX_MAGIC = 0x54494458;  // "TIDX"
+    public static final int PREVIEW = 0x10;
+    public static final int LAND = 0x20;
+    public static final int PIECE = 0x40;
+    public static final int KEYFRAME = 0x80;
+    public static final int END = 0xFF;
+
+    // pieces between keyframes -- a seek plays at most this many
+    public static final int KEYFRAME_INTERVAL = 1024;
+
+    private final DataOutputStream out;
+    private final int interval;
+
+    // the index: piece count and file offset of each keyframe so far
+    private int keyframes;
+    private int[] counts = new int[16];
+    private long[] offsets = new long[16];
+
+    public ReplayWriter(OutputStream out) {
+        this(out, KEYFRAME_INTERVAL);
+    }
+
+    /**
+     Writes a keyframe every interval pieces, or none if it is 0.
+    */
+    public ReplayWriter(OutputStream out, int interval) {
+        this.out = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+        this.interval = interval;
+    }
+
+    public void started(TetrisEngine engine, long seed) {
+        try {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeShort(engine.getWidth());
+            out.writeShort(engine.getHeight());
+            out.writeInt(engine.getPieceLimit());
+            out.writeLong(seed);
+            out.writeByte(engine.getPreviewSize());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void piece(int index, int rotation) {
+        write(PIECE | index << 2 | rotation);
+    }
+
+    public void tick(int verb) {
+        write(verb);
+    }
+
+    public void land(int rotation, int x) {
+        write(LAND | rotation);
+        write(x);
+    }
+
+    public void previewSize(int size) {
+        write(PREVIEW);
+        write(size);
+    }
+
+    public void pieceAdded(TetrisEngine engine) {
+        if (interval > 0 && engine.getCount() % interval == 0) {
+            try {
+                keyframe(engine);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private void keyframe(TetrisEngine engine) throws IOException {
+        if (keyframes == counts.length) {
+            counts = Arrays.copyOf(counts, 2 * keyframes);
+            offsets = Arrays.copyOf(offsets, 2 * keyframes);
+        }
+        counts[keyframes] = engine.getCount();
+        offsets[keyframes] = out.size();
+        keyframes++;
+
+        out.writeByte(KEYFRAME);
+        out.writeInt(engine.getCount());
+        out.writeInt(engine.getScore());
+        out.writeInt(engine.getLines());
+        out.writeByte(engine.pieceCode(engine.getCurrentPiece()));
+        out.writeShort(engine.getCurrentX());
+        out.writeShort(engine.getCurrentY());
+        Piece[] preview = engine.getPreview();
+        out.writeByte(engine.getPreviewSize());
+        out.writeByte(preview.length);
+        for (Piece piece : preview) out.writeByte(engine.pieceCode(piece));
+
+        Board board = engine.copyBoard();
+        out.writeLong(board.getZobrist());
+        int rows = board.getMaxHeight();
+        out.writeShort(rows);
+        for (int y = 0; y < rows; y++) {
+            long bits = board.getRowBits(y);
+            for (int x = 0; x < board.getWidth(); x += 8) out.writeByte((int) (bits >>> x));
+        }
+    }
+
+    public void ended(TetrisEngine engine) {
+        try {
+            out.writeByte(END);
+            out.writeLong(engine.getBoard().getZobrist());
+            out.writeInt(engine.getScore());
+            out.writeInt(engine.getLines());
+            out.writeInt(engine.getCount());
+
+            long index = out.size();
+            out.writeInt(keyframes);
+            for (int i = 0; i < keyframes; i++) {
+                out.writeInt(counts[i]);
+                out.writeLong(offsets[i]);
+            }
+            out.writeLong(index);
+            out.writeInt(INDEX_MAGIC);
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void write(int b) {
+        try {
+            out.write(b);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void close() throws IOException {
+        out.close();
+    }
+}
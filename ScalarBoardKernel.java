@@ -0,0 +1,32 @@
+// ScalarBoardKernel.java
+
+import java.util.Arrays;
+
+/**
+ The plain Java BoardKernel: whole rows at a time with bit operations
+ for the transitions, and one step per filled block for the columns.
+*/
+class ScalarBoardKernel extends BoardKernel {
+    public String getName() {
+        return "scalar";
+    }
+
+    public int scan(long[] rows, int count, int width, int[] heights, int[] filled) {
+        Arrays.fill(heights, 0, width, 0);
+        Arrays.fill(filled, 0, width, 0);
+        int transitions = 0;
+        long below = width == Long.SIZE ? -1L : (1L << width) - 1;
+        for (int y = 0; y < count; y++) {
+            long row = rows[y];
+            transitions += Long.bitCount(row ^ below);
+            below = row;
+            while (row != 0) {
+                int x = Long.numberOfTrailingZeros(row);
+                filled[x]++;
+                heights[x] = y + 1;
+                row &= row - 1;
+            }
+        }
+        return transitions;
+    }
+}
@@ -0,0 +1,240 @@
+// SimulationRunner.java
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.LongFunction;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ Plays many seeded headless games of a brain across all cores and
+ reports how it did. Games are spread over a work-stealing ForkJoinPool;
+ every worker thread keeps its own TetrisEngine (and so its own Board)
+ and its own Brain, so the games share nothing and the run scales with
+ the cores. Game i is seeded from the run seed and i alone, so the
+ results do not depend on how many threads played them.
+
+ From the command line:
+ <pre>
+ java SimulationRunner [-games N] [-seed S] [-limit PIECES] [-threads T] [-brain CLASS] [-pieces uniform|bag] [-record DIR]
+ </pre>
+ The brain is any Brain class with a no-argument constructor
+ (DefaultBrain by default). With -record every game is saved as
+ DIR/game-N.replay, for ReplayPlayer.
+*/
+public class SimulationRunner {
+    private final Supplier<? extends Brain> brains;
+    private final int width;
+    private final int height;
+    private final int pieceLimit;
+    private LongFunction<PieceGenerator> generators = PieceGenerator.UNIFORM;
+    private File recordDir;
+
+    /**
+     Creates a runner for games on a width by height board (plus the
+     top space), each stopped after pieceLimit pieces if it lasts that
+     long (0 for no limit). Each worker thread gets its own brain
+     from brains.
+    */
+    public SimulationRunner(Supplier<? extends Brain> brains, int width, int height, int pieceLimit) {
+        this.brains = brains;
+        this.width = width;
+        this.height = height;
+        this.pieceLimit = pieceLimit;
+    }
+
+    /**
+     Sets how games make their pieces, see TetrisEngine.setGenerators().
+    */
+    public void setGenerators(LongFunction<PieceGenerator> generators) {
+        this.generators = generators;
+    }
+
+    /**
+     Saves a replay of every game in the given directory, or none if null.
+    */
+    public void setRecordDir(File dir) {
+        recordDir = dir;
+    }
+
+    /**
+     What a run came to. The per-game arrays are in game order.
+    */
+    public static class Result {
+        public final int[] pieces;
+        public final int[] lines;
+        public final int[] scores;
+        long nanos;     // wall clock time of the whole run
+
+        Result(int games) {
+            pieces = new int[games];
+            lines = new int[games];
+            scores = new int[games];
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        public int getGames() {
+            return scores.length;
+        }
+
+        public long getTotalPieces() {
+            return sum(pieces);
+        }
+
+        public long getTotalLines() {
+            return sum(lines);
+        }
+
+        public double getGamesPerSecond() {
+            return getGames() * 1e9 / nanos;
+        }
+
+        public double getPiecesPerSecond() {
+            return getTotalPieces() * 1e9 / nanos;
+        }
+
+        /**
+         Returns the score below which the given fraction of games fall,
+         e.g. 0.5 for the median.
+        */
+        public int getScorePercentile(double fraction) {
+            int[] sorted = scores.clone();
+            Arrays.sort(sorted);
+            int i = (int) Math.round(fraction * (sorted.length - 1));
+            return sorted[Math.max(0, Math.min(sorted.length - 1, i))];
+        }
+
+        public double getMeanScore() {
+            return (double) sum(scores) / getGames();
+        }
+
+        private static long sum(int[] values) {
+            long total = 0;
+            for (int v : values) total += v;
+            return total;
+        }
+
+        public String toString() {
+            return String.format("%d games, %d pieces, %d lines in %.2fs (%.1f games/s, %.0f pieces/s)%n"
+                                 + "score: mean %.1f, min %d, p10 %d, median %d, p90 %d, max %d",
+                                 getGames(), getTotalPieces(), getTotalLines(), nanos / 1e9,
+                                 getGamesPerSecond(), getPiecesPerSecond(), getMeanScore(),
+                                 getScorePercentile(0), getScorePercentile(0.1), getScorePercentile(0.5),
+                                 getScorePercentile(0.9), getScorePercentile(1));
+        }
+    }
+
+    // one per worker thread
+    private class Player {
+        final TetrisEngine engine = new TetrisEngine(width, height);
+        final Brain brain = brains.get();
+        final Brain.Move move = new Brain.Move();
+
+        Player() {
+            engine.setCheckMode(Board.CheckMode.OFF, 1);
+            engine.setPieceLimit(pieceLimit);
+            engine.setGenerators(generators);
+        }
+
+        void play(long seed, Result result, int game) {
+            int landed;
+            if (recordDir == null) {
+                landed = playOut(seed);
+            } else {
+                try (ReplayWriter writer = new ReplayWriter(new FileOutputStream(new File(recordDir, "game-" + game + ".replay")))) {
+                    engine.setRecorder(writer);
+                    landed = playOut(seed);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } finally {
+                    engine.setRecorder(null);
+                }
+            }
+            result.pieces[game] = landed;
+            result.lines[game] = engine.getLines();
+            result.scores[game] = engine.getScore();
+        }
+
+        // plays the game to the end and returns how many pieces landed
+        private int playOut(long seed) {
+            int landed = 0;
+            engine.startGame(seed);
+            while (engine.isGameOn()) {
+                // no play under the limit -- whatever it does, it loses
+                if (engine.think(brain, move) == null || !engine.land(move.piece, move.x)) engine.stopGame();
+                else landed++;
+            }
+            return landed;
+        }
+    }
+
+    /**
+     Plays the given number of games on the pool and returns the results.
+    */
+    public Result run(int games, long seed, ForkJoinPool pool) {
+        ThreadLocal<Player> players = ThreadLocal.withInitial(Player::new);
+        Result result = new Result(games);
+        long start = System.nanoTime();
+        pool.submit(() -> IntStream.range(0, games).parallel().forEach(
+            game -> players.get().play(gameSeed(seed, game), result, game))).join();
+        result.nanos = System.nanoTime() - start;
+        return result;
+    }
+
+    /**
+     Returns the seed of game number game in a run with the given seed.
+    */
+    public static long gameSeed(long seed, int game) {
+        long z = seed + (game + 1) * 0x9E3779B97F4A7C15L;    // SplitMix64
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int games = 1000;
+        long seed = 0;
+        int limit = 0;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String brainName = "DefaultBrain";
+        LongFunction<PieceGenerator> generators = PieceGenerator.UNIFORM;
+        File recordDir = null;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "-games": games = Integer.parseInt(args[i + 1]); break;
+                case "-seed": seed = Long.parseLong(args[i + 1]); break;
+                case "-limit": limit = Integer.parseInt(args[i + 1]); break;
+                case "-threads": threads = Integer.parseInt(args[i + 1]); break;
+                case "-brain": brainName = args[i + 1]; break;
+                case "-pieces": generators = "bag".equals(args[i + 1]) ? PieceGenerator.BAG : PieceGenerator.UNIFORM; break;
+                case "-record": recordDir = new File(args[i + 1]); break;
+                default:
+                    System.err.println("Usage: java SimulationRunner [-games N] [-seed S] [-limit PIECES] [-threads T] [-brain CLASS] [-pieces uniform|bag] [-record DIR]");
+                    System.exit(1);
+            }
+        }
+        Class<? extends Brain> brainClass = Class.forName(brainName).asSubclass(Brain.class);
+        Supplier<Brain> brains = () -> {
+            try {
+                return brainClass.getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException e) {
+                throw new RuntimeException("Cannot create brain " + brainClass.getName(), e);
+            }
+        };
+
+        SimulationRunner runner = new SimulationRunner(brains, JTetris.WIDTH, JTetris.HEIGHT, limit);
+        runner.setGenerators(generators);
+        runner.setRecordDir(recordDir);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        System.out.println(brainName + " on " + threads + " threads:");
+        System.out.println(runner.run(games, seed, pool));
+        pool.shutdown();
+    }
+}
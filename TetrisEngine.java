@@ -0,0 +1,640 @@
+// TetrisEngine.java
+
+import java.util.ArrayDeque;
+import java.util.SplittableRandom;
+import java.util.function.LongFunction;
+
+/**
+ The rules of the game, with no UI: the falling piece, how the verbs
+ move it, landing, row clearing, scoring and the end of the game.
+ JTetris is a view on one of these; on its own it plays headless games
+ as fast as tick() or land() are called.
+
+ Games are deterministic: startGame() takes the seed for the piece
+ sequence, so the same seed and the same moves give the same game.
+ The engine tells a Listener what happened, so a view can repaint.
+ Like Board, an engine is meant to be used by one thread at a time.
+*/
+
+/*
+ Implementation notes (as in JTetris before the rules moved here):
+ -The "currentPiece" points to a piece that is
+ currently falling, or is null when there is no piece.
+ -tick() moves the current piece
+ -Board.undo() is used to remove the piece from its
+ old position and then Board.place() is used to install
+ the piece in its new position.
+*/
+public class TetrisEngine {
+	// Extra blocks at the top for pieces to start.
+	// If a piece is sticking up into this area
+	// when it has landed -- game over!
+	public static final int TOP_SPACE = 4;
+
+	// Upcoming pieces kept in the preview queue
+	public static final int PREVIEW_SIZE = 3;
+
+	// The verbs for tick()
+	public static final int ROTATE = 0;
+	public static final int LEFT = 1;
+	public static final int RIGHT = 2;
+	public static final int DROP = 3;
+	public static final int DOWN = 4;
+
+	/**
+	 Hears about changes to the game, mostly so a view can repaint.
+	 All the methods do nothing by default.
+	*/
+	public interface Listener {
+		/** The current piece moved; the old one is null if there was none. */
+		default void pieceMoved(Piece oldPiece, int oldX, int oldY) { }
+		/** The current piece filled at least one row, not cleared yet. */
+		default void rowsFilled() { }
+		/** A landed piece cleared some rows. */
+		default void rowsCleared(int cleared) { }
+		/** A new piece is in play (or could not be added, ending the game). */
+		default void pieceAdded() { }
+		/** The game is over. */
+		default void gameOver() { }
+	}
+
+	/**
+	 Chooses the pieces -- the default takes them from the
+	 game's PieceGenerator.
+	*/
+	public interface PieceSource {
+		Piece pickNextPiece(TetrisEngine engine);
+	}
+
+	/**
+	 Hears every action that changes the game, in order, so it can be
+	 played back exactly (see ReplayWriter). Pieces are numbered by
+	 Piece.getPieces() index and rotations by fastRotation() steps.
+	 pieceAdded() comes when a new piece is in play, the moment
+	 a game can be saved and later resume()d from. previewSize()
+	 comes when setPreviewSize() changes it during a game.
+	*/
+	public interface Recorder {
+		void started(TetrisEngine engine, long seed);
+		void piece(int index, int rotation);
+		void tick(int verb);
+		void land(int rotation, int x);
+		void previewSize(int size);
+		void pieceAdded(TetrisEngine engine);
+		void ended(TetrisEngine engine);
+	}
+
+	private static final Listener QUIET = new Listener() { };
+
+	private final int width;
+	private final int height;	// the visible height, below TOP_SPACE
+	private final Piece[] pieces = Piece.getPieces();
+	private Listener listener = QUIET;
+	private Recorder recorder;
+	private PieceSource source = TetrisEngine::randomPiece;
+	private LongFunction<PieceGenerator> generators = PieceGenerator.UNIFORM;
+	private Board.CheckMode checkMode = Board.CheckMode.SAMPLED;
+	private int checkPeriod = Board.DEFAULT_CHECK_PERIOD;
+
+	private Board board;
+
+	// The current piece in play or null
+	private Piece currentPiece;
+	private int currentX;
+	private int currentY;
+	private boolean moved;	// did the player move the piece
+
+	// State of the game
+	private boolean gameOn;
+	private int count;		// how many pieces played so far
+	private int score;
+	private int lines;		// rows cleared so far
+	private int pieceLimit;	// game stops after this many pieces, 0 for no limit
+	private int previewSize = PREVIEW_SIZE;
+	private SplittableRandom random;	// the game's randomness, seeded by startGame()
+	private PieceGenerator generator;	// the pieces, split off random
+	private final ArrayDeque<Piece> preview = new ArrayDeque<Piece>();
+
+	/**
+	 Creates an engine for a board width wide with height visible rows
+	 (and TOP_SPACE more above them). No game is on until startGame().
+	*/
+	public TetrisEngine(int width, int height) {
+		this.width = width;
+		this.height = height;
+		board = newBoard();
+	}
+
+	private Board newBoard() {
+		Board b = new Board(width, height + TOP_SPACE);
+		b.setCheckMode(checkMode, checkPeriod);
+		return b;
+	}
+
+	public void setListener(Listener listener) {
+		this.listener = listener == null ? QUIET : listener;
+	}
+
+	/**
+	 Records later games with the given recorder, or stops recording if null.
+	*/
+	public void setRecorder(Recorder recorder) {
+		this.recorder = recorder;
+	}
+
+	public void setPieceSource(PieceSource source) {
+		this.source = source == null ? TetrisEngine::randomPiece : source;
+	}
+
+	/**
+	 Sets how later games make their piece generators from
+	 their seeds, e.g. PieceGenerator.BAG. Uniform by default.
+	*/
+	public void setGenerators(LongFunction<PieceGenerator> generators) {
+		this.generators = generators;
+	}
+
+	/**
+	 Sets the check mode for the boards of later games,
+	 see Board.setCheckMode().
+	*/
+	public void setCheckMode(Board.CheckMode mode, int period) {
+		checkMode = mode;
+		checkPeriod = period;
+	}
+
+	/**
+	 Ends games after the given number of pieces, or never if 0.
+	*/
+	public void setPieceLimit(int limit) {
+		pieceLimit = limit;
+	}
+
+	/**
+	 Sets how many upcoming pieces are picked ahead and shown by
+	 getPreview(), PREVIEW_SIZE by default. A piece source that looks
+	 at the board, like an adversary, wants 0 so it picks each piece
+	 for the board it will land on. A larger size fills up at the next
+	 piece; a smaller one takes effect as the pieces already queued
+	 come into play. Since it changes when pieces are picked, a change
+	 during a game is recorded.
+	*/
+	public void setPreviewSize(int size) {
+		if (size < 0 || size > 255) throw new IllegalArgumentException("Preview size must be in 0..255, got: " + size);
+		if (gameOn && recorder != null && size != previewSize) recorder.previewSize(size);
+		previewSize = size;
+	}
+
+	public int getPreviewSize() {
+		return previewSize;
+	}
+
+	/**
+	 Starts a new game with the piece sequence for the given seed.
+	*/
+	public void startGame(long seed) {
+		board = newBoard();
+		currentPiece = null;
+		moved = false;
+		count = 0;
+		score = 0;
+		lines = 0;
+		random = new SplittableRandom(seed);
+		generator = generators.apply(random.nextLong());
+		gameOn = true;
+		if (recorder != null) recorder.started(this, seed);
+
+		preview.clear();
+		while (preview.size() < previewSize) preview.addLast(pick());
+
+		addNewPiece();
+	}
+
+	/**
+	 Stops the game.
+	*/
+	public void stopGame() {
+		if (!gameOn) return;
+		gameOn = false;
+		if (recorder != null) recorder.ended(this);
+		listener.gameOver();
+	}
+
+	public Board getBoard() {
+		return board;
+	}
+
+	public Piece[] getPieces() {
+		return pieces;
+	}
+
+	/**
+	 Returns the game's random numbers, for choices other than
+	 the pieces (which come from getGenerator()).
+	*/
+	public SplittableRandom getRandom() {
+		return random;
+	}
+
+	public Piece getCurrentPiece() {
+		return currentPiece;
+	}
+
+	public int getCurrentX() {
+		return currentX;
+	}
+
+	public int getCurrentY() {
+		return currentY;
+	}
+
+	public boolean isGameOn() {
+		return gameOn;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public int getScore() {
+		return score;
+	}
+
+	public int getLines() {
+		return lines;
+	}
+
+	/**
+	 Returns the height pieces must land below, as brains want it.
+	*/
+	public int getLimitHeight() {
+		return board.getHeight() - TOP_SPACE;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 Returns the visible height, below TOP_SPACE.
+	*/
+	public int getHeight() {
+		return height;
+	}
+
+	public int getPieceLimit() {
+		return pieceLimit;
+	}
+
+	/**
+	 Returns the upcoming pieces, next first.
+	*/
+	public Piece[] getPreview() {
+		return preview.toArray(new Piece[0]);
+	}
+
+	public PieceGenerator getGenerator() {
+		return generator;
+	}
+
+	/**
+	 The default piece source: the next piece from the game's generator.
+	*/
+	public static Piece randomPiece(TetrisEngine engine) {
+		return engine.generator.nextPiece(engine.pieces);
+	}
+
+
+	/**
+	 Given a piece, tries to install that piece
+	 into the board and set it to be the current piece.
+	 If the placement is not possible, then the board is
+	 not touched at all -- it is checked with Board.probe() first. The board
+	 should be in the committed state when this is called.
+	 Returns the same error code as Board.place().
+	*/
+	private int setCurrent(Piece piece, int x, int y) {
+		// rejected moves never touch the board
+		int result = board.probe(piece, x, y);
+		if (result <= Board.PLACE_ROW_FILLED) result = board.place(piece, x, y);
+
+		if (result <= Board.PLACE_ROW_FILLED) { // SUCESS
+			Piece oldPiece = currentPiece;
+			int oldX = currentX, oldY = currentY;
+			currentPiece = piece;
+			currentX = x;
+			currentY = y;
+			listener.pieceMoved(oldPiece, oldX, oldY);
+		}
+
+		return(result);
+	}
+
+
+	/**
+	 Takes the next piece off the front of the preview queue,
+	 and tops the queue up from the piece source. With no
+	 preview the piece is picked right now, for the board as it is.
+	*/
+	private Piece nextPiece() {
+		while (preview.size() <= previewSize) preview.addLast(pick());
+		return preview.removeFirst();
+	}
+
+
+	// the next piece from the source, recorded
+	private Piece pick() {
+		Piece piece = source.pickNextPiece(this);
+		if (recorder != null) {
+			int code = pieceCode(piece);
+			recorder.piece(code >>> 2, code & 3);
+		}
+		return piece;
+	}
+
+	/**
+	 Returns how the recorder numbers the given piece:
+	 its getPieces() index << 2 | its rotation.
+	*/
+	public int pieceCode(Piece piece) {
+		for (int i = 0; i < pieces.length; i++) {
+			int r = rotation(pieces[i], piece);
+			if (r >= 0) return i << 2 | r;
+		}
+		throw new RuntimeException("Cannot record a piece that is not a standard one");
+	}
+
+	/**
+	 The piece with the given pieceCode().
+	*/
+	public Piece piece(int code) {
+		return rotate(pieces[code >>> 2], code & 3);
+	}
+
+	// how many fastRotation() steps from root to piece, -1 if never;
+	// pieces are compared by equals(), so a copy of a rotation counts
+	private static int rotation(Piece root, Piece piece) {
+		Piece current = root;
+		for (int r = 0; ; r++) {
+			if (current == piece || current.equals(piece)) return r;
+			current = current.fastRotation();
+			if (current == root) break;
+		}
+		return -1;
+	}
+
+	/**
+	 Returns the piece that is the given number of
+	 fastRotation() steps from root.
+	*/
+	public static Piece rotate(Piece root, int rotation) {
+		for (int r = 0; r < rotation; r++) root = root.fastRotation();
+		return root;
+	}
+
+	/**
+	 Tries to add a new piece at the top of the board.
+	 Ends the game if it's not possible.
+	*/
+	private void addNewPiece() {
+		count++;
+		score++;
+
+		if (pieceLimit > 0 && count == pieceLimit+1) {
+			stopGame();
+			return;
+		}
+
+		// commit things the way they are
+		board.commit();
+		currentPiece = null;
+
+		Piece piece = nextPiece();
+
+		// Center it up at the top
+		int px = (board.getWidth() - piece.getWidth())/2;
+		int py = board.getHeight() - piece.getHeight();
+
+		// add the new piece to be in play
+		int result = setCurrent(piece, px, py);
+
+		// This probably never happens, since
+		// the blocks at the top allow space
+		// for new pieces to at least be added.
+		if (result>Board.PLACE_ROW_FILLED) {
+			stopGame();
+		}
+		else if (recorder != null) {
+			recorder.pieceAdded(this);
+		}
+
+		listener.pieceAdded();
+	}
+
+
+	/**
+	 Picks a game up where it was when a piece had just been added,
+	 as a Recorder saw it at pieceAdded(): the board without the
+	 current piece, the current piece and where it is, the preview
+	 (next first), and the count, score and lines so far.
+	 The game's generator is not saved, so the pieces from here on
+	 come from the piece source -- this is for playing back replays.
+	 The preview size is the engine's own, so set it first with
+	 setPreviewSize(); there must be at least that many upcoming
+	 pieces (more while a smaller size takes effect).
+	*/
+	public void resume(Board board, Piece piece, int x, int y, Piece[] upcoming,
+			int count, int score, int lines) {
+		if (board.getWidth() != width || board.getHeight() != height + TOP_SPACE) {
+			throw new IllegalArgumentException("Board is " + board.getWidth() + "x" + board.getHeight()
+					+ ", not " + width + "x" + (height + TOP_SPACE));
+		}
+		if (upcoming.length < previewSize) {
+			throw new IllegalArgumentException("Got " + upcoming.length + " upcoming pieces for a preview of " + previewSize);
+		}
+		board.setCheckMode(checkMode, checkPeriod);
+		board.commit();
+		this.board = board;
+		currentPiece = null;
+		moved = false;
+		this.count = count;
+		this.score = score;
+		this.lines = lines;
+		random = null;
+		generator = null;
+		preview.clear();
+		for (Piece p : upcoming) preview.addLast(p);
+		gameOn = true;
+
+		if (setCurrent(piece, x, y) > Board.PLACE_ROW_FILLED) {
+			gameOn = false;
+			throw new IllegalArgumentException("The current piece does not fit at " + x + ", " + y);
+		}
+		listener.pieceAdded();
+	}
+
+
+	/**
+	 Called to change the position of the current piece.
+	 The verbs LEFT RIGHT ROTATE DROP are the player's moves,
+	 and DOWN moves the piece down one square, as a timer would.
+	 A DOWN that fails right after another DOWN lands the piece.
+	 Returns true if the piece landed.
+	*/
+	public boolean tick(int verb) {
+		if (!gameOn) return false;
+		if (recorder != null) recorder.tick(verb);
+
+		if (currentPiece != null) {
+			board.undo();	// remove the piece from its old position
+		}
+
+		// As a starting point, the new position is the same as the old
+		Piece newPiece = currentPiece;
+		int newX = currentX;
+		int newY = currentY;
+
+		// Make changes based on the verb
+		switch (verb) {
+			case LEFT: newX--; break;
+
+			case RIGHT: newX++; break;
+
+			case ROTATE:
+				newPiece = newPiece.fastRotation();
+
+				// tricky: make the piece appear to rotate about its center
+				// can't just leave it at the same lower-left origin as the
+				// previous piece.
+				newX = newX + (currentPiece.getWidth() - newPiece.getWidth())/2;
+				newY = newY + (currentPiece.getHeight() - newPiece.getHeight())/2;
+				break;
+
+			case DOWN: newY--; break;
+
+			case DROP:
+			 newY = board.dropHeight(newPiece, newX);
+
+			 // trick: avoid the case where the drop would cause
+			 // the piece to appear to move up
+			 if (newY > currentY) {
+				 newY = currentY;
+			 }
+			 break;
+
+			default:
+				 throw new RuntimeException("Bad verb");
+		}
+
+		// try out the new position (rolls back if it doesn't work)
+		int result = setCurrent(newPiece, newX, newY);
+
+		// row clearing is going to happen
+		if (result ==  Board.PLACE_ROW_FILLED) {
+			listener.rowsFilled();
+		}
+
+		boolean failed = (result >= Board.PLACE_OUT_BOUNDS);
+
+		// if it didn't work, put it back the way it was
+		if (failed) {
+			if (currentPiece != null) board.place(currentPiece, currentX, currentY);
+		}
+
+		/*
+		 How to detect when a piece has landed:
+		 if this move hits something on its DOWN verb,
+		 and the previous verb was also DOWN (i.e. the player was not
+		 still moving it),	then the previous position must be the correct
+		 "landed" position, so we're done with the falling of this piece.
+		*/
+		boolean landed = failed && verb==DOWN && !moved;
+
+		// Note if the player made a successful non-DOWN move --
+		// used to detect if the piece has landed on the next tick()
+		moved = (!failed && verb!=DOWN);
+
+		if (landed) landed();
+		return landed;
+	}
+
+
+	/**
+	 Moves the current piece straight to the given rotation of it and x,
+	 drops it, and lands it -- what a player would do with ticks, in one
+	 step. This is how brains play headless games.
+	 Returns false, changing nothing, if the piece is not a rotation
+	 of the current one or does not fit there.
+	*/
+	public boolean land(Piece piece, int x) {
+		if (!gameOn || currentPiece == null) return false;
+		int rotation = rotation(currentPiece, piece);
+		if (rotation < 0) return false;
+		piece = rotate(currentPiece, rotation);	// our own, whatever copy we were given
+
+		board.undo();
+		int y = x < 0 || x + piece.getWidth() > width ? -1 : board.dropHeight(piece, x);
+		if (y < 0 || y > currentY || setCurrent(piece, x, y) > Board.PLACE_ROW_FILLED) {
+			board.place(currentPiece, currentX, currentY);
+			return false;
+		}
+		// only plays that happened are recorded
+		if (recorder != null) recorder.land(rotation, x);
+		moved = false;
+		landed();
+		return true;
+	}
+
+
+	/**
+	 Returns a copy of the board without the falling piece,
+	 for a brain to think about on another thread.
+	*/
+	public Board copyBoard() {
+		if (currentPiece == null) return board.copy();
+		board.undo();
+		Board copy = board.copy();
+		board.place(currentPiece, currentX, currentY);
+		return copy;
+	}
+
+
+	/**
+	 Returns the brain's best move for the current piece on the board
+	 without it, leaving the game as it was.
+	*/
+	public Brain.Move think(Brain brain, Brain.Move move) {
+		if (currentPiece == null) return null;
+		board.undo();
+		Brain.Move best = brain.bestMove(board, currentPiece, getPreview(), getLimitHeight(), move);
+		board.place(currentPiece, currentX, currentY);
+		return best;
+	}
+
+
+	// the current piece has landed -- clear rows, score, and carry on
+	private void landed() {
+		int cleared = board.clearRows();
+		if (cleared > 0) {
+			lines += cleared;
+			// score goes up by 5, 10, 20, 40 for row clearing
+			switch (cleared) {
+				case 1: score += 5;	 break;
+				case 2: score += 10;  break;
+				case 3: score += 20;  break;
+				case 4: score += 40;  break;
+				default: score += 50;  // could happen with non-standard pieces
+			}
+			listener.rowsCleared(cleared);
+		}
+
+		// if the board is too tall, we've lost
+		if (board.getMaxHeight() > board.getHeight() - TOP_SPACE) {
+			stopGame();
+		}
+		// Otherwise add a new piece and keep playing
+		else {
+			addNewPiece();
+		}
+	}
+}
@@ -0,0 +1,354 @@
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+/*
+  Unit tests for TetrisEngine -- the rules without the UI.
+ */
+public class TetrisEngineTest extends TestCase {
+	private Piece[] pieces;
+	private TetrisEngine engine;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		pieces = Piece.getPieces();
+		engine = new TetrisEngine(10, 20);
+	}
+
+	// plays a whole game with the brain, returning its final score
+	private int playOut(TetrisEngine e, long seed, int limit) {
+		e.setPieceLimit(limit);
+		e.startGame(seed);
+		DefaultBrain brain = new DefaultBrain();
+		Brain.Move move = new Brain.Move();
+		while (e.isGameOn()) {
+			if (e.think(brain, move) == null) {
+				e.stopGame();    // it would only lose
+				break;
+			}
+			assertTrue(e.land(move.piece, move.x));
+		}
+		return e.getScore();
+	}
+
+	public void testSeededGames() {
+		TetrisEngine other = new TetrisEngine(10, 20);
+		engine.startGame(42);
+		other.startGame(42);
+		assertTrue(engine.getCurrentPiece().equals(other.getCurrentPiece()));
+		for (int i = 0; i < TetrisEngine.PREVIEW_SIZE; i++) {
+			assertTrue(engine.getPreview()[i].equals(other.getPreview()[i]));
+		}
+
+		int score = playOut(engine, 7, 60);
+		assertEquals(score, playOut(other, 7, 60));
+		assertEquals(engine.getLines(), other.getLines());
+		assertEquals(engine.getBoard(), other.getBoard());
+		assertTrue(engine.getLines() > 0);
+		assertEquals(61, engine.getCount());    // stopped by the limit
+	}
+
+	public void testBagPieces() {
+		engine.setGenerators(PieceGenerator.BAG);
+		engine.setPieceSource(e -> e.getGenerator().nextPiece(e.getPieces()));
+		engine.startGame(9);
+
+		// the game's pieces are its generator's, dealt from a bag
+		PieceGenerator same = PieceGenerator.bag(new SplittableRandom(9).nextLong());
+		assertTrue(same.nextPiece(pieces).equals(engine.getCurrentPiece()));
+		for (Piece p : engine.getPreview()) {
+			assertTrue(same.nextPiece(pieces).equals(p));
+			assertFalse(p.equals(engine.getCurrentPiece()));
+		}
+	}
+
+	public void testNoPreview() {
+		// with no preview each piece is picked for the board it lands on
+		int[] picked = new int[1];
+		engine.setPreviewSize(0);
+		engine.setPieceSource(e -> {
+			picked[0] = e.getBoard().getMaxHeight();
+			return TetrisEngine.randomPiece(e);
+		});
+		engine.startGame(3);
+		assertEquals(0, engine.getPreview().length);
+		Brain.Move move = engine.think(new DefaultBrain(), null);
+		assertTrue(engine.land(move.piece, move.x));
+		int height = engine.copyBoard().getMaxHeight();
+		assertTrue(height > 0);
+		assertEquals(height, picked[0]);
+
+		// turning it back on fills the queue up again
+		engine.setPreviewSize(TetrisEngine.PREVIEW_SIZE);
+		move = engine.think(new DefaultBrain(), null);
+		assertTrue(engine.land(move.piece, move.x));
+		assertEquals(TetrisEngine.PREVIEW_SIZE, engine.getPreview().length);
+	}
+
+	public void testTickLanding() {
+		engine.startGame(1);
+		Piece piece = engine.getCurrentPiece();
+		int x = engine.getCurrentX();
+
+		// the drop counts as a move, so it takes two failed DOWNs to land
+		assertFalse(engine.tick(TetrisEngine.DROP));
+		assertEquals(0, engine.getCurrentY());
+		assertFalse(engine.tick(TetrisEngine.DOWN));
+		assertTrue(engine.tick(TetrisEngine.DOWN));
+
+		assertEquals(2, engine.getCount());
+		assertEquals(4, engine.getBoard().getBlockCount() - 4);    // and the new piece is in
+		for (TPoint pt : piece.getBody()) {
+			assertTrue(engine.getBoard().getGrid(x + pt.x, pt.y));
+		}
+
+		// walls stop the piece without landing it
+		for (int i = 0; i < 10; i++) assertFalse(engine.tick(TetrisEngine.LEFT));
+		assertEquals(0, engine.getCurrentX());
+		try {
+			engine.tick(42);
+			fail("bad verb");
+		} catch (RuntimeException expected) {
+		}
+	}
+
+	public void testScoringAndGameOver() {
+		final Piece flat = pieces[Piece.STICK].fastRotation();
+		final int[] events = new int[3];
+		TetrisEngine narrow = new TetrisEngine(4, 8);
+		narrow.setPieceSource(e -> flat);
+		narrow.setListener(new TetrisEngine.Listener() {
+			public void rowsCleared(int cleared) { events[0] += cleared; }
+			public void pieceAdded() { events[1]++; }
+			public void gameOver() { events[2]++; }
+		});
+		narrow.startGame(0);
+
+		// every flat stick fills and clears a row
+		for (int i = 0; i < 5; i++) assertTrue(narrow.land(flat, 0));
+		assertEquals(5, narrow.getLines());
+		assertEquals(6 + 5 * 5, narrow.getScore());
+		assertEquals(5, events[0]);
+		assertEquals(6, events[1]);
+		assertEquals(4, narrow.getBoard().getBlockCount());    // just the new piece
+
+		// a piece that does not fit changes nothing
+		assertFalse(narrow.land(flat, 1));
+		assertFalse(narrow.land(pieces[Piece.STICK], 4));
+
+		// standing sticks pile up past the visible rows
+		Piece stick = pieces[Piece.STICK];
+		assertTrue(narrow.land(stick, 0));
+		assertTrue(narrow.land(stick, 0));
+		assertTrue(narrow.isGameOn());
+		assertTrue(narrow.land(stick, 0));
+		assertFalse(narrow.isGameOn());
+		assertEquals(1, events[2]);
+		assertFalse(narrow.land(flat, 0));
+		narrow.stopGame();
+		assertEquals(1, events[2]);
+	}
+
+	public void testSimulationRunner() {
+		SimulationRunner runner = new SimulationRunner(DefaultBrain::new, 10, 20, 50);
+		ForkJoinPool one = new ForkJoinPool(1);
+		ForkJoinPool four = new ForkJoinPool(4);
+		try {
+			SimulationRunner.Result a = runner.run(24, 3, one);
+			SimulationRunner.Result b = runner.run(24, 3, four);
+
+			// the same games whatever the number of threads
+			assertEquals(24, a.getGames());
+			assertArrayEquals(a.scores, b.scores);
+			assertArrayEquals(a.lines, b.lines);
+			assertArrayEquals(a.pieces, b.pieces);
+			assertTrue(a.getTotalLines() > 0);
+			for (int p : a.pieces) assertTrue(p <= 50);
+			assertTrue(a.getScorePercentile(0) <= a.getScorePercentile(0.5));
+			assertTrue(a.getScorePercentile(0.5) <= a.getScorePercentile(1));
+			assertTrue(a.getGamesPerSecond() > 0);
+
+			// and each game is the one a single engine plays with that seed
+			assertEquals(a.scores[5], playOut(engine, SimulationRunner.gameSeed(3, 5), 50));
+		} finally {
+			one.shutdown();
+			four.shutdown();
+		}
+	}
+
+	public void testReplay() throws Exception {
+		// a brain game, then a game of random key presses on bag pieces
+		ByteArrayOutputStream brainGame = new ByteArrayOutputStream();
+		ReplayWriter writer = new ReplayWriter(brainGame);
+		engine.setRecorder(writer);
+		int score = playOut(engine, 8, 0);
+		writer.close();
+
+		ByteArrayOutputStream keyGame = new ByteArrayOutputStream();
+		TetrisEngine keys = new TetrisEngine(8, 16);
+		keys.setGenerators(PieceGenerator.BAG);
+		keys.setRecorder(new ReplayWriter(keyGame));
+		TetrisEngine played;
+		keys.startGame(4);
+		Random rand = new Random(4);
+		while (keys.isGameOn()) keys.tick(rand.nextInt(3) == 0 ? rand.nextInt(5) : TetrisEngine.DOWN);
+
+		// a rejected land is not recorded, and a copy of a rotation lands like it
+		ByteArrayOutputStream copyGame = new ByteArrayOutputStream();
+		TetrisEngine copies = new TetrisEngine(10, 20);
+		copies.setRecorder(new ReplayWriter(copyGame));
+		copies.startGame(6);
+		assertFalse(copies.land(copies.getCurrentPiece(), -3));
+		for (int i = 0; i < 5 && copies.isGameOn(); i++) {
+			Piece current = copies.getCurrentPiece().fastRotation();
+			assertTrue(copies.land(new Piece(current.getBody()), 0));
+		}
+		copies.stopGame();
+		played = ReplayPlayer.play(new ByteArrayInputStream(copyGame.toByteArray()));
+		assertEquals(copies.getBoard(), played.getBoard());
+		assertEquals(6, played.getCount());
+
+		played = ReplayPlayer.play(new ByteArrayInputStream(brainGame.toByteArray()));
+		assertEquals(score, played.getScore());
+		assertEquals(engine.getBoard(), played.getBoard());
+		played = ReplayPlayer.play(new ByteArrayInputStream(keyGame.toByteArray()));
+		assertEquals(keys.getScore(), played.getScore());
+		assertEquals(keys.getBoard(), played.getBoard());
+		assertEquals(8, played.getWidth());
+
+		// about a byte a tick
+		assertTrue(brainGame.size() < 40 + 3 * engine.getCount() + 30);
+
+		// a changed move no longer ends the same way
+		byte[] bytes = brainGame.toByteArray();
+		for (int i = 40; i < bytes.length; i++) {
+			if ((bytes[i] & 0xfc) == ReplayWriter.LAND) {
+				bytes[i + 1] ^= 1;
+				break;
+			}
+		}
+		try {
+			ReplayPlayer.play(new ByteArrayInputStream(bytes));
+			fail("tampered replay");
+		} catch (RuntimeException expected) {
+			assertTrue(expected.getMessage().startsWith("Replay diverged"));
+		}
+	}
+
+	public void testReplaySeek() throws Exception {
+		// the same brain game with keyframes every 8 pieces and with none
+		File indexed = File.createTempFile("seek", ".replay");
+		File plain = File.createTempFile("plain", ".replay");
+		indexed.deleteOnExit();
+		plain.deleteOnExit();
+		for (File file : new File[] { indexed, plain }) {
+			try (ReplayWriter writer = new ReplayWriter(new FileOutputStream(file), file == indexed ? 8 : 0)) {
+				engine.setRecorder(writer);
+				playOut(engine, 5, 0);
+			}
+		}
+		int count = engine.getCount();
+		assertTrue(count > 24);
+
+		// seeking gives the same game as playing up to the piece
+		for (int piece : new int[] { 1, 7, 8, 9, 16, count / 2, count - 1 }) {
+			TetrisEngine sought = ReplayPlayer.seek(indexed, piece);
+			TetrisEngine played = ReplayPlayer.seek(plain, piece);
+			assertEquals(piece, sought.getCount());
+			assertEquals(played.getBoard(), sought.getBoard());
+			assertEquals(played.getBoard().getZobrist(), sought.getBoard().getZobrist());
+			assertEquals(played.getScore(), sought.getScore());
+			assertEquals(played.getLines(), sought.getLines());
+			assertSame(played.getCurrentPiece(), sought.getCurrentPiece());
+			assertEquals(played.getCurrentY(), sought.getCurrentY());
+			assertArrayEquals(played.getPreview(), sought.getPreview());
+		}
+
+		// past the end is the end, and the keyframes check out on a full play
+		TetrisEngine end = ReplayPlayer.seek(indexed, count + 100);
+		assertFalse(end.isGameOn());
+		assertEquals(engine.getScore(), end.getScore());
+		try (InputStream in = new FileInputStream(indexed)) {
+			assertEquals(engine.getBoard(), ReplayPlayer.play(in).getBoard());
+		}
+
+		// a keyframe whose board hash is off is caught on a full play
+		ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(indexed.toPath()));
+		int index = (int) bytes.getLong(bytes.capacity() - 12);
+		int at = (int) bytes.getLong(index + 8);    // the first keyframe
+		assertEquals(ReplayWriter.KEYFRAME, bytes.get(at) & 0xff);
+		int hashAt = at + 1 + 12 + 1 + 2 + 2 + 1 + 1 + TetrisEngine.PREVIEW_SIZE;
+		bytes.put(hashAt, (byte) (bytes.get(hashAt) ^ 1));
+		try {
+			ReplayPlayer.play(new ByteArrayInputStream(bytes.array()));
+			fail("tampered keyframe");
+		} catch (RuntimeException expected) {
+			assertTrue(expected.getMessage().contains("keyframe board"));
+		}
+
+		// a keyframe board comes back from its rows
+		Board board = engine.copyBoard();
+		long[] rows = new long[board.getMaxHeight()];
+		for (int y = 0; y < rows.length; y++) rows[y] = board.getRowBits(y);
+		Board loaded = Board.fromRows(10, 24, rows, rows.length);
+		assertEquals(board, loaded);
+		assertEquals(board.getZobrist(), loaded.getZobrist());
+		assertEquals(board.getHoles(), loaded.getHoles());
+		assertEquals(board.getBumpiness(), loaded.getBumpiness());
+		assertEquals(board.getWellSum(), loaded.getWellSum());
+	}
+
+	public void testReplayPreviewSize() throws Exception {
+		// no preview, as with the adversary, then the preview turned on and off mid-game
+		File indexed = File.createTempFile("preview", ".replay");
+		File plain = File.createTempFile("preview-plain", ".replay");
+		indexed.deleteOnExit();
+		plain.deleteOnExit();
+		DefaultBrain brain = new DefaultBrain();
+		for (File file : new File[] { indexed, plain }) {
+			try (ReplayWriter writer = new ReplayWriter(new FileOutputStream(file), file == indexed ? 4 : 0)) {
+				engine.setRecorder(writer);
+				engine.setPreviewSize(0);
+				engine.startGame(7);
+				while (engine.isGameOn() && engine.getCount() < 40) {
+					if (engine.getCount() == 10) engine.setPreviewSize(TetrisEngine.PREVIEW_SIZE);
+					if (engine.getCount() == 20) engine.setPreviewSize(0);
+					Brain.Move move = engine.think(brain, null);
+					if (move == null || !engine.land(move.piece, move.x)) engine.stopGame();
+				}
+				engine.stopGame();
+			}
+		}
+		assertEquals(40, engine.getCount());
+
+		TetrisEngine played;
+		try (InputStream in = new FileInputStream(indexed)) {
+			played = ReplayPlayer.play(in);
+		}
+		assertEquals(engine.getBoard(), played.getBoard());
+		assertEquals(engine.getScore(), played.getScore());
+		assertEquals(0, played.getPreviewSize());
+
+		for (int piece : new int[] { 3, 9, 13, 21, 24, 33 }) {
+			TetrisEngine sought = ReplayPlayer.seek(indexed, piece);
+			TetrisEngine slow = ReplayPlayer.seek(plain, piece);
+			assertEquals(piece, sought.getCount());
+			assertEquals(slow.getBoard(), sought.getBoard());
+			assertEquals(slow.getPreviewSize(), sought.getPreviewSize());
+			assertArrayEquals(slow.getPreview(), sought.getPreview());
+		}
+		assertEquals(TetrisEngine.PREVIEW_SIZE, ReplayPlayer.seek(indexed, 13).getPreviewSize());
+	}
+}
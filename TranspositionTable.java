@@ -0,0 +1,141 @@
+// TranspositionTable.java
+
+import java.util.Arrays;
+
+/**
+ A fixed-size cache of search results keyed by 64-bit position hashes,
+ such as Board.getZobrist(). Memory is allocated once up front as flat
+ arrays, and lookups and stores never allocate.
+
+ Each key maps to exactly one slot. A store replaces what is in the slot
+ unless that is a different position searched deeper during the current
+ generation -- entries from earlier generations (see nextGeneration())
+ are always fair game, so deep results cannot clog the table for ever.
+
+ Typical client code looks like...
+ <pre>
+ long key = TranspositionTable.key(board.getZobrist(), piece.getShapeKey(), depth);
+ int slot = table.find(key, depth);
+ if (slot >= 0) score = table.getScore(slot);
+ else table.store(key, depth, score = search(...), move);
+ </pre>
+*/
+public class TranspositionTable {
+    public static final int NO_MOVE = -1;
+
+    private final long[] keys;
+    private final double[] scores;
+    private final int[] moves;
+    private final byte[] depths;    // -1 marks an empty slot
+    private final short[] generations;
+    private final int mask;
+    private short generation;
+
+    private long hits;
+    private long misses;
+    private long replacements;
+
+    /**
+     Creates a table with room for at least the given number
+     of entries, rounded up to a power of two.
+    */
+    public TranspositionTable(int entries) {
+        if (entries < 1) throw new IllegalArgumentException("Table size must be positive, got: " + entries);
+        int size = Integer.highestOneBit(entries);
+        if (size < entries) size <<= 1;
+        keys = new long[size];
+        scores = new double[size];
+        moves = new int[size];
+        depths = new byte[size];
+        generations = new short[size];
+        mask = size - 1;
+        clear();
+    }
+
+    /**
+     Mixes a position hash with the extra things a search result
+     depends on, such as the piece and the search depth.
+    */
+    public static long key(long position, long piece, int depth) {
+        long h = position ^ piece * 0x9E3779B97F4A7C15L ^ (long) depth * 0xC2B2AE3D27D4EB4FL;
+        h ^= h >>> 31;
+        h *= 0xBF58476D1CE4E5B9L;
+        return h ^ h >>> 29;
+    }
+
+    /**
+     Returns the slot holding the given key searched to at least
+     the given depth, or -1 if there is none.
+    */
+    public int find(long key, int depth) {
+        int slot = (int) (key ^ key >>> 32) & mask;
+        if (keys[slot] == key && depths[slot] >= depth) {
+            hits++;
+            return slot;
+        }
+        misses++;
+        return -1;
+    }
+
+    public double getScore(int slot) {
+        return scores[slot];
+    }
+
+    public int getMove(int slot) {
+        return moves[slot];
+    }
+
+    /**
+     Records a result, following the replacement policy above.
+     Returns false if a deeper entry for another position was kept instead.
+    */
+    public boolean store(long key, int depth, double score, int move) {
+        int slot = (int) (key ^ key >>> 32) & mask;
+        if (depths[slot] >= 0 && keys[slot] != key) {
+            if (generations[slot] == generation && depths[slot] > depth) return false;
+            replacements++;
+        }
+        keys[slot] = key;
+        depths[slot] = (byte) depth;
+        generations[slot] = generation;
+        scores[slot] = score;
+        moves[slot] = move;
+        return true;
+    }
+
+    /**
+     Starts a new generation -- older entries stay readable
+     but no longer resist being replaced.
+    */
+    public void nextGeneration() {
+        generation++;
+    }
+
+    /**
+     Empties the table and resets the counters.
+    */
+    public void clear() {
+        Arrays.fill(depths, (byte) -1);
+        generation = 0;
+        hits = misses = replacements = 0;
+    }
+
+    public int getCapacity() {
+        return keys.length;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     Returns how many stores evicted a different position.
+    */
+    public long getReplacements() {
+        return replacements;
+    }
+}
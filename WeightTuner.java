@@ -0,0 +1,257 @@
+// WeightTuner.java
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ Tunes WeightedEvaluator weights with the cross-entropy method.
+ Each generation draws a population of weight vectors from a normal
+ distribution, plays headless games with each, and moves the
+ distribution to the mean and spread of the best few (the elite).
+ A little extra spread is added each generation, fading away, so the
+ search does not collapse too early.
+
+ All the candidates of a generation play the same seeded piece
+ sequences, so they are compared on equal terms, and the games run in
+ parallel on a ForkJoinPool. The whole run is determined by its seed:
+ save() writes a checkpoint and load() picks the run up again exactly
+ where it stopped.
+
+ From the command line:
+ <pre>
+ java WeightTuner tuning.properties [generations]
+ </pre>
+ resumes tuning.properties if it exists, saves it after every
+ generation, and prints the best weights found.
+*/
+public class WeightTuner {
+    // extra spread added to every weight, times NOISE_DECAY each generation
+    public static final double START_NOISE = 4;
+    public static final double NOISE_DECAY = 0.9;
+    // games end after this many pieces, so good weights still finish
+    public static final int DEFAULT_MAX_PIECES = 2000;
+
+    private static final int WIDTH = 10;
+    private static final int HEIGHT = 20;
+
+    private final int population;
+    private final int elite;
+    private final int games;
+    private final int maxPieces;
+    private final long seed;
+    private final double[] mean;
+    private final double[] deviation;
+    private int generation;
+    private double[] best;
+    private double bestScore = Double.NEGATIVE_INFINITY;
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    /**
+     Starts a run from the classic weights, with a spread of 10 on each.
+     Every candidate plays games games of at most maxPieces pieces.
+    */
+    public WeightTuner(int population, int elite, int games, int maxPieces, long seed) {
+        if (elite < 2 || elite > population || games < 1 || maxPieces < 1) {
+            throw new IllegalArgumentException("Bad tuning setup: population " + population
+                                               + ", elite " + elite + ", games " + games + ", pieces " + maxPieces);
+        }
+        this.population = population;
+        this.elite = elite;
+        this.games = games;
+        this.maxPieces = maxPieces;
+        this.seed = seed;
+        mean = WeightedEvaluator.classic().getWeights();
+        deviation = new double[WeightedEvaluator.FEATURE_COUNT];
+        Arrays.fill(deviation, 10);
+        best = mean.clone();
+    }
+
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public int getGeneration() {
+        return generation;
+    }
+
+    /**
+     Returns the candidate with the highest average score so far,
+     ready to play with.
+    */
+    public WeightedEvaluator getBest() {
+        return new WeightedEvaluator(best);
+    }
+
+    public double getBestScore() {
+        return bestScore;
+    }
+
+    public double[] getMean() {
+        return mean.clone();
+    }
+
+    /**
+     Runs one generation and returns the average score of its elite.
+    */
+    public double step() {
+        // the candidates and the games of this generation follow from the seed alone
+        Random rand = new Random(seed * 31 + generation);
+        double[][] candidates = new double[population][WeightedEvaluator.FEATURE_COUNT];
+        for (double[] c : candidates) {
+            for (int i = 0; i < c.length; i++) {
+                c[i] = mean[i] + deviation[i] * rand.nextGaussian();
+            }
+        }
+        long[] gameSeeds = new long[games];
+        for (int g = 0; g < games; g++) gameSeeds[g] = rand.nextLong();
+
+        // every (candidate, game) pair is its own task
+        double[] lines = new double[population * games];
+        pool.submit(() -> IntStream.range(0, lines.length).parallel().forEach(n -> {
+            Evaluator evaluator = new WeightedEvaluator(candidates[n / games]);
+            lines[n] = play(evaluator, gameSeeds[n % games], maxPieces);
+        })).join();
+
+        Integer[] order = new Integer[population];
+        double[] scores = new double[population];
+        for (int c = 0; c < population; c++) {
+            order[c] = c;
+            for (int g = 0; g < games; g++) scores[c] += lines[c * games + g];
+            scores[c] /= games;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(scores[b], scores[a]));    // best first, stable
+
+        if (scores[order[0]] > bestScore) {
+            bestScore = scores[order[0]];
+            best = candidates[order[0]].clone();
+        }
+        double noise = START_NOISE * Math.pow(NOISE_DECAY, generation);
+        double eliteScore = 0;
+        for (int i = 0; i < mean.length; i++) {
+            double sum = 0, squares = 0;
+            for (int e = 0; e < elite; e++) {
+                double w = candidates[order[e]][i];
+                sum += w;
+                squares += w * w;
+            }
+            mean[i] = sum / elite;
+            deviation[i] = Math.sqrt(Math.max(0, squares / elite - mean[i] * mean[i])) + noise;
+        }
+        for (int e = 0; e < elite; e++) eliteScore += scores[order[e]];
+        generation++;
+        return eliteScore / elite;
+    }
+
+    /**
+     Plays one headless game with the evaluator, on a TetrisEngine
+     seeded with the given seed, and returns the rows it cleared.
+     The game ends when the engine says so, or after maxPieces.
+    */
+    public static int play(Evaluator evaluator, long seed, int maxPieces) {
+        TetrisEngine engine = new TetrisEngine(WIDTH, HEIGHT);
+        engine.setCheckMode(Board.CheckMode.OFF, 1);
+        engine.setPieceLimit(maxPieces);
+        engine.startGame(seed);
+        DefaultBrain brain = new DefaultBrain(null, evaluator);
+        Brain.Move move = new Brain.Move();
+        while (engine.isGameOn()) {
+            if (engine.think(brain, move) == null || !engine.land(move.piece, move.x)) break;
+        }
+        return engine.getLines();
+    }
+
+    /**
+     Writes the state of the run to file, replacing it in one step
+     so a crash part way never leaves a broken checkpoint behind.
+    */
+    public void save(File file) throws IOException {
+        Properties p = new Properties();
+        p.setProperty("population", Integer.toString(population));
+        p.setProperty("elite", Integer.toString(elite));
+        p.setProperty("games", Integer.toString(games));
+        p.setProperty("maxPieces", Integer.toString(maxPieces));
+        p.setProperty("seed", Long.toString(seed));
+        p.setProperty("generation", Integer.toString(generation));
+        p.setProperty("mean", join(mean));
+        p.setProperty("deviation", join(deviation));
+        p.setProperty("best", join(best));
+        p.setProperty("bestScore", Double.toString(bestScore));
+        p.setProperty("features", String.join(",", WeightedEvaluator.FEATURE_NAMES));
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try (Writer out = new FileWriter(tmp)) {
+            p.store(out, "WeightTuner checkpoint");
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     Reads a run written by save().
+    */
+    public static WeightTuner load(File file) throws IOException {
+        Properties p = new Properties();
+        try (Reader in = new FileReader(file)) {
+            p.load(in);
+        }
+        try {
+            WeightTuner tuner = new WeightTuner(Integer.parseInt(p.getProperty("population")),
+                                                Integer.parseInt(p.getProperty("elite")),
+                                                Integer.parseInt(p.getProperty("games")),
+                                                Integer.parseInt(p.getProperty("maxPieces")),
+                                                Long.parseLong(p.getProperty("seed")));
+            tuner.generation = Integer.parseInt(p.getProperty("generation"));
+            split(p.getProperty("mean"), tuner.mean);
+            split(p.getProperty("deviation"), tuner.deviation);
+            split(p.getProperty("best"), tuner.best);
+            tuner.bestScore = Double.parseDouble(p.getProperty("bestScore"));
+            return tuner;
+        } catch (RuntimeException e) {    // missing or mangled entries
+            throw new IOException("Bad tuning checkpoint: " + file, e);
+        }
+    }
+
+    private static String join(double[] values) {
+        StringBuilder buff = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) buff.append(',');
+            buff.append(values[i]);    // round trips exactly
+        }
+        return buff.toString();
+    }
+
+    private static void split(String text, double[] values) {
+        String[] parts = text.split(",");
+        if (parts.length != values.length) {
+            throw new IllegalArgumentException("Expected " + values.length + " values, got: " + text);
+        }
+        for (int i = 0; i < values.length; i++) values[i] = Double.parseDouble(parts[i]);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: java WeightTuner checkpoint-file [generations]");
+            System.exit(1);
+        }
+        File file = new File(args[0]);
+        int generations = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        WeightTuner tuner = file.exists() ? load(file) : new WeightTuner(50, 10, 8, DEFAULT_MAX_PIECES, 2024);
+        while (tuner.getGeneration() < generations) {
+            double score = tuner.step();
+            tuner.save(file);
+            System.out.printf("generation %d: elite %.1f lines, best %.1f%n",
+                              tuner.getGeneration(), score, tuner.getBestScore());
+        }
+        System.out.println("new WeightedEvaluator(new double[] { " + join(tuner.best).replace(",", ", ") + " })");
+    }
+}
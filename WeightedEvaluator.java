@@ -0,0 +1,153 @@
+// WeightedEvaluator.java
+
+import java.util.Arrays;
+
+/**
+ An Evaluator that scores a board as a weighted sum of standard features.
+ The weights come from outside, so trying new weights is just a matter
+ of making a new WeightedEvaluator -- no new Brain class needed.
+
+ The row based features (row and column transitions) come from one
+ pass over the row bits up to the highest block; the height based ones
+ (heights, holes, bumpiness, wells) from the counters the board keeps
+ up to date anyway; and the placement ones (landing height, eroded
+ blocks) from what the board remembers about the last place().
+*/
+public class WeightedEvaluator implements Evaluator {
+    // feature numbers, the index of each feature's weight
+    public static final int MAX_HEIGHT = 0;
+    public static final int AVG_HEIGHT = 1;
+    public static final int HOLES = 2;
+    public static final int ROW_TRANSITIONS = 3;
+    public static final int COL_TRANSITIONS = 4;
+    public static final int WELLS = 5;
+    public static final int BUMPINESS = 6;
+    public static final int LANDING_HEIGHT = 7;
+    public static final int ERODED_BLOCKS = 8;
+    public static final int FEATURE_COUNT = 9;
+
+    public static final String[] FEATURE_NAMES = {
+        "maxHeight", "avgHeight", "holes", "rowTransitions", "colTransitions",
+        "wells", "bumpiness", "landingHeight", "erodedBlocks"
+    };
+
+    private final double[] weights;
+
+    /**
+     Creates an evaluator with the given weights, one per feature
+     in feature number order. The array is copied.
+    */
+    public WeightedEvaluator(double[] weights) {
+        if (weights.length != FEATURE_COUNT) {
+            throw new IllegalArgumentException("Need " + FEATURE_COUNT + " weights, got: " + weights.length);
+        }
+        this.weights = weights.clone();
+    }
+
+    /**
+     Returns an evaluator that scores just like the original
+     DefaultBrain.rateBoard(): 8*maxHeight + 40*avgHeight + 1.25*holes.
+    */
+    public static WeightedEvaluator classic() {
+        double[] weights = new double[FEATURE_COUNT];
+        weights[MAX_HEIGHT] = 8;
+        weights[AVG_HEIGHT] = 40;
+        weights[HOLES] = 1.25;
+        return new WeightedEvaluator(weights);
+    }
+
+    /**
+     Returns a copy of the weights.
+    */
+    public double[] getWeights() {
+        return weights.clone();
+    }
+
+    public double evaluate(Board board) {
+        return scan(board, null);
+    }
+
+    public boolean usesPlacement() {
+        return weights[LANDING_HEIGHT] != 0 || weights[ERODED_BLOCKS] != 0;
+    }
+
+    /**
+     Fills features (at least FEATURE_COUNT long) with the unweighted
+     feature values of the board, and returns the weighted score.
+    */
+    public double features(Board board, double[] features) {
+        if (features.length < FEATURE_COUNT) {
+            throw new IllegalArgumentException("Need room for " + FEATURE_COUNT + " features, got: " + features.length);
+        }
+        return scan(board, features);
+    }
+
+    /*
+     Works out every feature, writes them to out if it is not null,
+     and returns the weighted sum.
+    */
+    private double scan(Board board, double[] out) {
+        final int width = board.getWidth();
+        final int maxHeight = board.getMaxHeight();
+        final long full = width == Long.SIZE ? -1L : (1L << width) - 1;
+
+        // Row transitions count filled/empty changes along each row, the
+        // walls being filled; column transitions count them up each
+        // column from the filled floor to the highest block.
+        int rowTransitions = 0;
+        int colTransitions = 0;
+        long below = full;
+        for (int y = 0; y < maxHeight; y++) {
+            long row = board.getRowBits(y);
+            rowTransitions += BoardKernel.rowTransitions(row, width);
+            colTransitions += Long.bitCount(row ^ below);
+            below = row;
+        }
+
+        // Each well of depth d counts 1 + 2 + ... + d, so deep wells
+        // cost more than several shallow ones.
+        int wells = 0;
+        for (int x = 0; x < width; x++) {
+            int depth = board.getWellDepth(x);
+            wells += depth * (depth + 1) / 2;
+        }
+
+        // Landing height is the middle of the last piece; eroded blocks
+        // are the rows it cleared times its blocks in them.
+        double landingHeight = 0;
+        int eroded = 0;
+        Piece last = board.getLastPlacePiece();
+        if (last != null) {
+            landingHeight = board.getLastPlaceY() + (last.getHeight() - 1) / 2.0;
+            eroded = board.getLastRowsCleared() * board.getLastErodedBlocks();
+        }
+
+        double avgHeight = ((double) board.getAggregateHeight()) / width;
+        int holes = board.getHoles();
+        int bumpiness = board.getBumpiness();
+        if (out != null) {
+            out[MAX_HEIGHT] = maxHeight;
+            out[AVG_HEIGHT] = avgHeight;
+            out[HOLES] = holes;
+            out[ROW_TRANSITIONS] = rowTransitions;
+            out[COL_TRANSITIONS] = colTransitions;
+            out[WELLS] = wells;
+            out[BUMPINESS] = bumpiness;
+            out[LANDING_HEIGHT] = landingHeight;
+            out[ERODED_BLOCKS] = eroded;
+        }
+        return weights[MAX_HEIGHT] * maxHeight
+            + weights[AVG_HEIGHT] * avgHeight
+            + weights[HOLES] * holes
+            + weights[ROW_TRANSITIONS] * rowTransitions
+            + weights[COL_TRANSITIONS] * colTransitions
+            + weights[WELLS] * wells
+            + weights[BUMPINESS] * bumpiness
+            + weights[LANDING_HEIGHT] * landingHeight
+            + weights[ERODED_BLOCKS] * eroded;
+    }
+
+    public String toString() {
+        return "WeightedEvaluator" + Arrays.toString(weights);
+    }
+}
@@ -0,0 +1,60 @@
+// VectorBoardKernel.java
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ A BoardKernel on the Vector API, one column per lane. Each row's bits
+ for a strip of columns are spread over the lanes with a single shift
+ by the lane number, and then heights, block counts and transitions
+ for the whole strip step up the board together, with no branches.
+ Needs --add-modules jdk.incubator.vector; BoardKernel.getDefault()
+ falls back to the scalar kernel without it.
+
+ Kept out of the main sources so that plain javac *.java builds
+ without the incubating module. Build it after the rest, into the
+ same output:
+ <pre>
+ javac --add-modules jdk.incubator.vector -cp . -d . vector/VectorBoardKernel.java
+ </pre>
+*/
+class VectorBoardKernel extends BoardKernel {
+    private static final VectorSpecies<Integer> SPECIES = laneSpecies();
+    private static final IntVector LANE = IntVector.zero(SPECIES).addIndex(1);
+
+    // the preferred shape, but no more lanes than an int has bits
+    private static VectorSpecies<Integer> laneSpecies() {
+        VectorSpecies<Integer> species = IntVector.SPECIES_PREFERRED;
+        return species.length() <= Integer.SIZE ? species : IntVector.SPECIES_512;
+    }
+
+    public String getName() {
+        return "vector" + SPECIES.length();
+    }
+
+    public int scan(long[] rows, int count, int width, int[] heights, int[] filled) {
+        int transitions = 0;
+        IntVector one = IntVector.broadcast(SPECIES, 1);
+        for (int x = 0; x < width; x += SPECIES.length()) {
+            VectorMask<Integer> inside = SPECIES.indexInRange(x, width);
+            IntVector height = IntVector.zero(SPECIES);
+            IntVector blocks = IntVector.zero(SPECIES);
+            IntVector changes = IntVector.zero(SPECIES);
+            IntVector below = one;    // the floor
+            for (int y = 0; y < count; y++) {
+                IntVector bit = IntVector.broadcast(SPECIES, (int) (rows[y] >>> x))
+                    .lanewise(VectorOperators.LSHR, LANE).and(1);
+                blocks = blocks.add(bit);
+                changes = changes.add(bit.lanewise(VectorOperators.XOR, below));
+                height = height.blend(y + 1, bit.compare(VectorOperators.NE, 0));
+                below = bit;
+            }
+            height.intoArray(heights, x, inside);
+            blocks.intoArray(filled, x, inside);
+            transitions += changes.reduceLanes(VectorOperators.ADD, inside);
+        }
+        return transitions;
+    }
+}